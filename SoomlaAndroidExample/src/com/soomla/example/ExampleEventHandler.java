@@ -23,18 +23,17 @@ import com.soomla.store.BusProvider;
 import com.soomla.store.SoomlaApp;
 import com.soomla.store.StoreConfig;
 import com.soomla.store.events.*;
-import com.squareup.otto.Subscribe;
 
 /**
- * This class contains functions that receive events that they are subscribed to. Annotating with
- * <code>@subscribe</code> before each function lets the function receive a notification when an
- * event has occurred.
+ * This class contains functions that receive the events they override. Each function of
+ * <code>StoreEventHandlerAdapter</code> that is overridden receives a notification when an event
+ * of its type has occurred.
  */
-public class ExampleEventHandler {
+public class ExampleEventHandler extends StoreEventHandlerAdapter {
 
     /**
      * Constructor method.
-     * In order to receive events, this class instance needs to register with the bus.
+     * In order to receive events, this class instance needs to be added as a handler to the bus.
      *
      * @param handler event handler
      * @param activityI StoreExampleActivity
@@ -42,7 +41,7 @@ public class ExampleEventHandler {
     public ExampleEventHandler(Handler handler, StoreExampleActivity activityI){
         mHandler = handler;
         mActivityI = activityI;
-        BusProvider.getInstance().register(this);
+        BusProvider.getInstance().addHandler(this);
     }
 
     /**
@@ -54,7 +53,7 @@ public class ExampleEventHandler {
      *
      * @param marketPurchaseEvent the "market purchase" event that was fired
      */
-    @Subscribe
+    @Override
     public void onMarketPurchase(MarketPurchaseEvent marketPurchaseEvent) {
         showToastIfDebug(marketPurchaseEvent.getPurchasableVirtualItem().getName()
                 + " was just purchased");
@@ -67,7 +66,7 @@ public class ExampleEventHandler {
      *
      * @param marketRefundEvent the "market refund" event that was fired
      */
-    @Subscribe
+    @Override
     public void onMarketRefund(MarketRefundEvent marketRefundEvent) {
         showToastIfDebug(marketRefundEvent.getPurchasableVirtualItem().getName()
                 + " was just refunded");
@@ -80,8 +79,8 @@ public class ExampleEventHandler {
      *
      * @param itemPurchasedEvent the "item purchased" event that was fired
      */
-    @Subscribe
-    public void onVirtualItemPurchased(ItemPurchasedEvent itemPurchasedEvent) {
+    @Override
+    public void onItemPurchased(ItemPurchasedEvent itemPurchasedEvent) {
         showToastIfDebug(itemPurchasedEvent.getPurchasableVirtualItem().getName()
                 + " was just purchased");
     }
@@ -93,8 +92,8 @@ public class ExampleEventHandler {
      *
      * @param virtualGoodEquippedEvent the "virtual good equipped" event that was fired
      */
-    @Subscribe
-    public void onVirtualGoodEquipped(GoodEquippedEvent virtualGoodEquippedEvent) {
+    @Override
+    public void onGoodEquipped(GoodEquippedEvent virtualGoodEquippedEvent) {
         showToastIfDebug(virtualGoodEquippedEvent.getGood().getName() + " was just equipped");
     }
 
@@ -105,8 +104,8 @@ public class ExampleEventHandler {
      *
      * @param virtualGoodUnEquippedEvent the virtual good unequipped event that was fired
      */
-    @Subscribe
-    public void onVirtualGoodUnequipped(GoodUnEquippedEvent virtualGoodUnEquippedEvent) {
+    @Override
+    public void onGoodUnEquipped(GoodUnEquippedEvent virtualGoodUnEquippedEvent) {
         showToastIfDebug(virtualGoodUnEquippedEvent.getGood().getName() + " was just unequipped");
     }
 
@@ -117,7 +116,7 @@ public class ExampleEventHandler {
      *
      * @param billingSupportedEvent the billing supported event that was fired
      */
-    @Subscribe
+    @Override
     public void onBillingSupported(BillingSupportedEvent billingSupportedEvent) {
         showToastIfDebug("Billing is supported");
     }
@@ -129,7 +128,7 @@ public class ExampleEventHandler {
      *
      * @param billingNotSupportedEvent the billing not supported event that was fired
      */
-    @Subscribe
+    @Override
     public void onBillingNotSupported(BillingNotSupportedEvent billingNotSupportedEvent) {
         showToastIfDebug("Billing is not supported");
     }
@@ -143,7 +142,7 @@ public class ExampleEventHandler {
      *
      * @param marketPurchaseStartedEvent the market purchase started event that was fired
      */
-    @Subscribe
+    @Override
     public void onMarketPurchaseStarted(MarketPurchaseStartedEvent marketPurchaseStartedEvent) {
         showToastIfDebug("Market purchase started for: "
                 + marketPurchaseStartedEvent.getPurchasableVirtualItem().getName());
@@ -158,7 +157,7 @@ public class ExampleEventHandler {
      *
      * @param marketPurchaseCancelledEvent the market purchase cancelled event that was fired
      */
-    @Subscribe
+    @Override
     public void onMarketPurchaseCancelled(
             MarketPurchaseCancelledEvent marketPurchaseCancelledEvent) {
         showToastIfDebug("Market purchase cancelled for: "
@@ -172,7 +171,7 @@ public class ExampleEventHandler {
      *
      * @param itemPurchaseStartedEvent the item purchase started event that was fired
      */
-    @Subscribe
+    @Override
     public void onItemPurchaseStarted(ItemPurchaseStartedEvent itemPurchaseStartedEvent) {
         showToastIfDebug("Item purchase started for: "
                 + itemPurchaseStartedEvent.getPurchasableVirtualItem().getName());
@@ -185,8 +184,8 @@ public class ExampleEventHandler {
      *
      * @param unexpectedStoreErrorEvent the unexpected store error event that was fired
      */
-    @Subscribe
-    public void onUnexpectedErrorInStore(UnexpectedStoreErrorEvent unexpectedStoreErrorEvent) {
+    @Override
+    public void onUnexpectedStoreError(UnexpectedStoreErrorEvent unexpectedStoreErrorEvent) {
         showToastIfDebug("Unexpected error occurred !");
     }
 
@@ -197,7 +196,7 @@ public class ExampleEventHandler {
      *
      * @param iabServiceStartedEvent the in-app billing service started event that was fired
      */
-    @Subscribe
+    @Override
     public void onIabServiceStarted(IabServiceStartedEvent iabServiceStartedEvent) {
         showToastIfDebug("Iab Service started");
     }
@@ -209,7 +208,7 @@ public class ExampleEventHandler {
      *
      * @param iabServiceStoppedEvent the in-app billing service stopped event that was fired
      */
-    @Subscribe
+    @Override
     public void onIabServiceStopped(IabServiceStoppedEvent iabServiceStoppedEvent) {
         showToastIfDebug("Iab Service stopped");
     }
@@ -221,7 +220,7 @@ public class ExampleEventHandler {
      *
      * @param currencyBalanceChangedEvent the currency balance changed event that was fired
      */
-    @Subscribe
+    @Override
     public void onCurrencyBalanceChanged(CurrencyBalanceChangedEvent currencyBalanceChangedEvent) {
         showToastIfDebug("(currency) " + currencyBalanceChangedEvent.getCurrency().getName()
                 + " balance was changed to " + currencyBalanceChangedEvent.getBalance() + ".");
@@ -234,7 +233,7 @@ public class ExampleEventHandler {
      *
      * @param goodBalanceChangedEvent the good balance changed event that was fired
      */
-    @Subscribe
+    @Override
     public void onGoodBalanceChanged(GoodBalanceChangedEvent goodBalanceChangedEvent) {
         showToastIfDebug("(good) " + goodBalanceChangedEvent.getGood().getName()
                 + " balance was changed to " + goodBalanceChangedEvent.getBalance() + ".");
@@ -248,7 +247,7 @@ public class ExampleEventHandler {
      * @param restoreTransactionsFinishedEvent the restore transactions finished event that was
      *                                         fired
      */
-    @Subscribe
+    @Override
     public void onRestoreTransactionsFinished(
             RestoreTransactionsFinishedEvent restoreTransactionsFinishedEvent) {
         showToastIfDebug("restoreTransactions: "
@@ -262,7 +261,7 @@ public class ExampleEventHandler {
      *
      * @param restoreTransactionsStartedEvent the restore transactions started event that was fired
      */
-    @Subscribe
+    @Override
     public void onRestoreTransactionsStarted(
             RestoreTransactionsStartedEvent restoreTransactionsStartedEvent) {
         showToastIfDebug("restoreTransactions Started");
@@ -275,7 +274,7 @@ public class ExampleEventHandler {
      *
      * @param storeControllerInitializedEvent the store controller initialized event that was fired
      */
-    @Subscribe
+    @Override
     public void onStoreControllerInitialized(
             StoreControllerInitializedEvent storeControllerInitializedEvent) {
         String [] s = {"no_ads"};
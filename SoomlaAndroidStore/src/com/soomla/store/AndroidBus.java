@@ -16,15 +16,41 @@
 
 package com.soomla.store;
 
-import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.Process;
+import com.soomla.store.events.CurrencyBalanceChangedEvent;
+import com.soomla.store.events.GoodBalanceChangedEvent;
+import com.soomla.store.events.RecyclableEvent;
+import com.soomla.store.events.StoreEventHandler;
 import com.squareup.otto.Bus;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
 /**
  * This class overrides <code>Bus</code>'s functions post, register, and unregister.
+ *
+ * Besides the <code>@Subscribe</code> methods of registered objects, events are delivered to
+ * {@link StoreEventHandler}s, which don't need any reflection and can be called on the main
+ * thread, on a background thread or on the posting thread.
  */
 public class AndroidBus extends Bus {
 
+    /**
+     * The threads that handlers of the store's events can be called on.
+     */
+    public static enum Delivery {
+        // the main thread, together with the subscribers registered with Bus. for handlers that
+        // touch the UI.
+        MAIN_THREAD,
+        // a single background thread, for handlers that don't touch the UI
+        BACKGROUND,
+        // the thread that posts the event, right when it's posted
+        POSTING_THREAD
+    }
+
     /**
      * Posts the given event so that all of its subscribers will be notified and will handle the
      * event.
@@ -33,15 +59,100 @@ public class AndroidBus extends Bus {
      */
     @Override
     public void post(final Object event) {
-        if (Looper.myLooper() == Looper.getMainLooper()) {
-            super.post(event);
-        } else {
-            mainThread.post(new Runnable() {
-                @Override
-                public void run() {
-                    post(event);
+        try {
+            if (mCoalescingWindowMs > 0) {
+                if (coalesce(event)) {
+                    return;
+                }
+                // the balance changes that happened before this event are delivered before it
+                synchronized (mFlushLock) {
+                    flushCoalesced();
+                    postNow(event);
                 }
-            });
+                return;
+            }
+            postNow(event);
+        } finally {
+            // the poster's reference. the bus took its own references for as long as it needs
+            // the event.
+            release(event);
+        }
+    }
+
+    /**
+     * Turns coalescing of balance change events on or off.
+     * With coalescing, the <code>GoodBalanceChangedEvent</code>s and
+     * <code>CurrencyBalanceChangedEvent</code>s of an item that are posted within the given window
+     * are delivered as a single event, with the final balance and the net amount added. This keeps
+     * bursts of changes (like giving a big reward, or a <code>SingleUsePackVG</code>) from
+     * flooding the subscribers.
+     *
+     * Pending balance changes are delivered when the window ends, or right before any other event
+     * is posted, so they're never delivered after an event that was posted after them.
+     * Handlers that are called on the posting thread get the coalesced events on the thread that
+     * flushes them: the main thread when the window ends, or the thread that posts the next event.
+     *
+     * @param windowMs how long to collect the balance changes of an item before delivering them,
+     *                 in milliseconds (for example 16 for one frame). 0 turns coalescing off.
+     */
+    public void setBalanceEventsCoalescing(long windowMs) {
+        mCoalescingWindowMs = windowMs;
+        if (windowMs <= 0) {
+            flushCoalesced();
+        }
+    }
+
+    /**
+     * Adds the given handler of the store's events, to be called on the main thread.
+     * See {@link #addHandler(StoreEventHandler, Delivery)}.
+     *
+     * @param handler the handler to add
+     */
+    public void addHandler(StoreEventHandler handler) {
+        addHandler(handler, Delivery.MAIN_THREAD);
+    }
+
+    /**
+     * Adds the given handler of the store's events. Every <code>StoreEvent</code> that's posted
+     * is passed to the handler by a direct call of the handler's method for its type. Unlike
+     * {@link #register(Object)}, this doesn't look for <code>@Subscribe</code> methods by
+     * reflection or invoke them by reflection.
+     *
+     * Handlers that don't touch the UI (analytics, server sync, ...) can be called on a background
+     * thread, so that they don't compete with rendering. The main thread and the background
+     * thread get the events in the same order. Handlers that are called on the posting thread get
+     * the events of every thread in the order that thread posted them.
+     * May be called from any thread.
+     *
+     * @param handler the handler to add
+     * @param delivery the thread to call the handler on
+     */
+    public void addHandler(StoreEventHandler handler, Delivery delivery) {
+        switch (delivery) {
+            case MAIN_THREAD:
+                mMainLane.addHandler(handler);
+                break;
+            case BACKGROUND:
+                getBackgroundLane().addHandler(handler);
+                break;
+            case POSTING_THREAD:
+                mPostingThreadLane.addHandler(handler);
+                break;
+        }
+    }
+
+    /**
+     * Removes the given handler of the store's events. An event that's being dispatched when the
+     * handler is removed may still be passed to it.
+     * May be called from any thread.
+     *
+     * @param handler the handler to remove
+     */
+    public void removeHandler(StoreEventHandler handler) {
+        mMainLane.removeHandler(handler);
+        mPostingThreadLane.removeHandler(handler);
+        if (mBackgroundLane != null) {
+            mBackgroundLane.removeHandler(handler);
         }
     }
 
@@ -51,17 +162,8 @@ public class AndroidBus extends Bus {
      * @param object the object to register
      */
     @Override
-    public void register(final Object object) {
-        if (Looper.myLooper() == Looper.getMainLooper()) {
-            super.register(object);
-        } else {
-            mainThread.post(new Runnable() {
-                @Override
-                public void run() {
-                    register(object);
-                }
-            });
-        }
+    public void register(Object object) {
+        mMainLane.execute(EventLane.OP_REGISTER, object);
     }
 
     /**
@@ -70,21 +172,210 @@ public class AndroidBus extends Bus {
      * @param object the object to register
      */
     @Override
-    public void unregister(final Object object) {
-        if (Looper.myLooper() == Looper.getMainLooper()) {
-            super.unregister(object);
+    public void unregister(Object object) {
+        mMainLane.execute(EventLane.OP_UNREGISTER, object);
+    }
+
+
+    /** Private functions **/
+
+    /**
+     * Delivers the given event to the handlers of every lane and to the subscribers, without
+     * coalescing it.
+     */
+    private void postNow(Object event) {
+        mPostingThreadLane.deliver(event);
+
+        EventLane backgroundLane = mBackgroundLane;
+        if (backgroundLane == null || !backgroundLane.hasHandlers()) {
+            retain(event);
+            mMainLane.execute(EventLane.OP_POST, event);
+            return;
+        }
+
+        // both lanes get the events in the order they're queued here
+        retain(event);
+        retain(event);
+        synchronized (mLanesLock) {
+            backgroundLane.enqueue(EventLane.OP_POST, event);
+            mMainLane.enqueue(EventLane.OP_POST, event);
+        }
+        if (mMainLane.isLaneThread()) {
+            mMainLane.drain();
+        }
+    }
+
+    private EventLane getBackgroundLane() {
+        synchronized (mLanesLock) {
+            if (mBackgroundLane == null) {
+                HandlerThread backgroundThread = new HandlerThread(TAG + " background",
+                        Process.THREAD_PRIORITY_BACKGROUND);
+                backgroundThread.start();
+                mBackgroundLane = new EventLane(backgroundThread.getLooper());
+            }
+            return mBackgroundLane;
+        }
+    }
+
+    /**
+     * Adds the given event to the pending balance changes, if it's a balance change event.
+     *
+     * @return true if the event was coalesced, false if it has to be posted as usual
+     */
+    private boolean coalesce(Object event) {
+        String key;
+        if (event instanceof GoodBalanceChangedEvent) {
+            key = ((GoodBalanceChangedEvent) event).getGood().getItemId();
+        } else if (event instanceof CurrencyBalanceChangedEvent) {
+            key = ((CurrencyBalanceChangedEvent) event).getCurrency().getItemId();
         } else {
-            mainThread.post(new Runnable() {
-                @Override
-                public void run() {
-                    unregister(object);
+            return false;
+        }
+
+        synchronized (mCoalesced) {
+            Object pending = mCoalesced.get(key);
+            if (pending != null) {
+                Object merged = merge(pending, event);
+                if (merged == event) {
+                    retain(event);
+                }
+                release(pending);
+                event = merged;
+            } else {
+                retain(event);
+                if (mCoalesced.isEmpty()) {
+                    mMainLane.getHandler().postDelayed(mFlushCoalesced, mCoalescingWindowMs);
                 }
-            });
+            }
+            mCoalesced.put(key, event);
+        }
+        return true;
+    }
+
+    /**
+     * Posts the pending balance changes, in the order of the items' first changes.
+     */
+    private void flushCoalesced() {
+        // held until the events are handed to the lanes, so an event that another thread posts
+        // meanwhile can't get ahead of them
+        synchronized (mFlushLock) {
+            List<Object> events;
+            synchronized (mCoalesced) {
+                if (mCoalesced.isEmpty()) {
+                    return;
+                }
+                mMainLane.getHandler().removeCallbacks(mFlushCoalesced);
+                events = new ArrayList<Object>(mCoalesced.values());
+                mCoalesced.clear();
+            }
+            for (Object event : events) {
+                postNow(event);
+                release(event);
+            }
+        }
+    }
+
+    /**
+     * Merges two balance changes of the same item into one, with the final balance and the sum of
+     * the amounts added.
+     */
+    private static Object merge(Object pending, Object event) {
+        if (pending instanceof GoodBalanceChangedEvent
+                && event instanceof GoodBalanceChangedEvent) {
+            GoodBalanceChangedEvent first = (GoodBalanceChangedEvent) pending;
+            GoodBalanceChangedEvent last = (GoodBalanceChangedEvent) event;
+            return GoodBalanceChangedEvent.obtain(last.getGood(), last.getBalance(),
+                    first.getAmountAdded() + last.getAmountAdded());
+        }
+        if (pending instanceof CurrencyBalanceChangedEvent
+                && event instanceof CurrencyBalanceChangedEvent) {
+            CurrencyBalanceChangedEvent first = (CurrencyBalanceChangedEvent) pending;
+            CurrencyBalanceChangedEvent last = (CurrencyBalanceChangedEvent) event;
+            return CurrencyBalanceChangedEvent.obtain(last.getCurrency(), last.getBalance(),
+                    first.getAmountAdded() + last.getAmountAdded());
+        }
+        // a good and a currency with the same itemId. shouldn't happen, the latest one wins.
+        return event;
+    }
+
+    /**
+     * Adds a reference to the given event, if it's recyclable.
+     */
+    private static void retain(Object event) {
+        if (event instanceof RecyclableEvent) {
+            ((RecyclableEvent) event).retain();
+        }
+    }
+
+    /**
+     * Removes a reference to the given event, if it's recyclable.
+     */
+    private static void release(Object event) {
+        if (event instanceof RecyclableEvent) {
+            ((RecyclableEvent) event).release();
         }
     }
 
 
     /** Private Members */
 
-    private final Handler mainThread = new Handler(Looper.getMainLooper());
+    private static final String TAG = "SOOMLA AndroidBus"; //used for Log messages
+
+    // the main thread, where the subscribers registered with Bus are called too
+    private final EventLane mMainLane = new EventLane(Looper.getMainLooper()) {
+        @Override
+        void run(int op, Object arg) {
+            switch (op) {
+                case OP_REGISTER:
+                    AndroidBus.super.register(arg);
+                    mRegistrations++;
+                    break;
+                case OP_UNREGISTER:
+                    AndroidBus.super.unregister(arg);
+                    mRegistrations--;
+                    break;
+                default:
+                    super.run(op, arg);
+            }
+        }
+
+        @Override
+        void deliver(Object event) {
+            super.deliver(event);
+            // Bus looks up the subscribers of the event by its class, don't bother if no one
+            // ever registered
+            if (mRegistrations > 0) {
+                AndroidBus.super.post(event);
+            }
+        }
+    };
+
+    // created when the first background handler is added
+    private volatile EventLane mBackgroundLane;
+
+    // its handlers are called right away, on whatever thread posts the event
+    private final EventLane mPostingThreadLane = new EventLane(Looper.getMainLooper());
+
+    // held while an event is queued for more than one lane
+    private final Object mLanesLock = new Object();
+
+    // the number of objects registered with Bus. only accessed on the main thread.
+    private int mRegistrations = 0;
+
+    // 0 if balance change events aren't coalesced
+    private volatile long mCoalescingWindowMs = 0;
+
+    // held while the pending balance changes are taken and delivered, together with the event
+    // whose posting flushed them
+    private final Object mFlushLock = new Object();
+
+    // the pending balance change of every item, by itemId
+    private final LinkedHashMap<String, Object> mCoalesced = new LinkedHashMap<String, Object>();
+
+    private final Runnable mFlushCoalesced = new Runnable() {
+        @Override
+        public void run() {
+            flushCoalesced();
+        }
+    };
 }
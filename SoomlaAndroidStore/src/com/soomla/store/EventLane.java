@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.store;
+
+import android.os.Handler;
+import android.os.Looper;
+import com.soomla.store.events.RecyclableEvent;
+import com.soomla.store.events.StoreEvent;
+import com.soomla.store.events.StoreEventHandler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The thread that some of the event bus' operations run on, and the handlers of the events that
+ * are delivered on it.
+ *
+ * Any thread can queue an operation for the lane without allocating anything. The queue is
+ * drained on the lane's thread by a single message, that's posted when the first operation is
+ * queued after the previous drain.
+ */
+class EventLane {
+
+    /** Operations **/
+
+    static final int OP_POST = 1;
+    static final int OP_REGISTER = 2;
+    static final int OP_UNREGISTER = 3;
+
+    /**
+     * Constructor
+     *
+     * @param looper the looper of the lane's thread
+     */
+    EventLane(Looper looper) {
+        mHandler = new Handler(looper);
+    }
+
+    /**
+     * Runs the given operation on the lane's thread. On that thread it runs right away, after the
+     * operations that were queued before it, unless one of them is still being queued by another
+     * thread. Otherwise it's queued.
+     *
+     * @param op the operation
+     * @param arg the argument of the operation
+     */
+    final void execute(int op, Object arg) {
+        if (isLaneThread() && drain()) {
+            run(op, arg);
+        } else {
+            enqueue(op, arg);
+        }
+    }
+
+    /**
+     * Queues the given operation. Unless this is called on the lane's thread, the queue will be
+     * drained soon; on the lane's thread the caller has to call {@link #drain()} itself.
+     *
+     * @param op the operation
+     * @param arg the argument of the operation
+     */
+    final void enqueue(int op, Object arg) {
+        if (mOverflowed || !mQueue.offer(op, arg)) {
+            // the queue is full. everything goes to the overflow until it's drained, so that the
+            // order is kept.
+            synchronized (mOverflow) {
+                mOverflowed = true;
+                mOverflow.add(op);
+                mOverflow.add(arg);
+            }
+        }
+        if (!isLaneThread()) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Runs the queued operations, and then the ones in the overflow. Must be called on the lane's
+     * thread.
+     *
+     * @return true if all the queued operations ran, false if one that another thread is still
+     *     queueing held up the rest. Another drain is scheduled then.
+     */
+    final boolean drain() {
+        if (!mOverflowed && mQueue.isEmpty()) {
+            return true;
+        }
+        mQueue.drain(mRunner, Integer.MAX_VALUE);
+
+        if (!mQueue.isEmpty()) {
+            // a producer claimed the next slot but hasn't published it yet. everything after it,
+            // including the overflow, has to wait for it.
+            scheduleDrain();
+            return false;
+        }
+        if (!mOverflowed) {
+            return true;
+        }
+        Object[] overflow;
+        synchronized (mOverflow) {
+            overflow = mOverflow.toArray();
+            mOverflow.clear();
+            mOverflowed = false;
+        }
+        for (int i = 0; i < overflow.length; i += 2) {
+            run((Integer) overflow[i], overflow[i + 1]);
+        }
+        return true;
+    }
+
+    final boolean isLaneThread() {
+        return Looper.myLooper() == mHandler.getLooper();
+    }
+
+    final Handler getHandler() {
+        return mHandler;
+    }
+
+    synchronized void addHandler(StoreEventHandler handler) {
+        StoreEventHandler[] handlers = Arrays.copyOf(mHandlers, mHandlers.length + 1);
+        handlers[mHandlers.length] = handler;
+        mHandlers = handlers;
+    }
+
+    synchronized void removeHandler(StoreEventHandler handler) {
+        for (int i = 0; i < mHandlers.length; i++) {
+            if (mHandlers[i] == handler) {
+                StoreEventHandler[] handlers = new StoreEventHandler[mHandlers.length - 1];
+                System.arraycopy(mHandlers, 0, handlers, 0, i);
+                System.arraycopy(mHandlers, i + 1, handlers, i, handlers.length - i);
+                mHandlers = handlers;
+                return;
+            }
+        }
+    }
+
+    boolean hasHandlers() {
+        return mHandlers.length > 0;
+    }
+
+    /**
+     * Runs the given operation. Called on the lane's thread.
+     *
+     * @param op the operation
+     * @param arg the argument of the operation
+     */
+    void run(int op, Object arg) {
+        if (op == OP_POST) {
+            dispatch(arg);
+        }
+    }
+
+    /**
+     * Delivers the given event to its handlers. Called on the lane's thread.
+     *
+     * @param event the event
+     */
+    void deliver(Object event) {
+        if (event instanceof StoreEvent) {
+            StoreEvent storeEvent = (StoreEvent) event;
+            for (StoreEventHandler handler : mHandlers) {
+                storeEvent.dispatch(handler);
+            }
+        }
+    }
+
+
+    /** Private functions **/
+
+    /**
+     * Posts a drain to the lane's thread, unless one is pending already.
+     */
+    private void scheduleDrain() {
+        if (!mDrainScheduled.get() && mDrainScheduled.compareAndSet(false, true)) {
+            mHandler.post(mDrain);
+        }
+    }
+
+    /**
+     * Delivers the given event. An event that's posted while another one is being delivered is
+     * delivered after it, like <code>Bus</code> does.
+     */
+    private void dispatch(Object event) {
+        mDispatchQueue.add(event);
+        if (mDispatching) {
+            return;
+        }
+
+        mDispatching = true;
+        try {
+            Object next;
+            while ((next = mDispatchQueue.poll()) != null) {
+                deliver(next);
+                // the reference that was taken when the event was handed to this lane
+                if (next instanceof RecyclableEvent) {
+                    ((RecyclableEvent) next).release();
+                }
+            }
+        } finally {
+            mDispatching = false;
+        }
+    }
+
+
+    /** Private Members **/
+
+    // the number of operations that other threads can queue before the lane's thread drains them,
+    // before they go to the overflow
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private final Handler mHandler;
+
+    // operations queued by other threads
+    private final EventQueue mQueue = new EventQueue(QUEUE_CAPACITY);
+
+    // operations queued while the queue was full, as pairs of op and arg
+    private final ArrayList<Object> mOverflow = new ArrayList<Object>();
+    private volatile boolean mOverflowed = false;
+
+    // true while a message that drains the queue is pending on the lane's thread
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            // cleared first, so an operation queued from now on schedules another drain
+            mDrainScheduled.set(false);
+            drain();
+        }
+    };
+
+    private final EventQueue.Consumer mRunner = new EventQueue.Consumer() {
+        @Override
+        public void accept(int op, Object arg) {
+            run(op, arg);
+        }
+    };
+
+    private volatile StoreEventHandler[] mHandlers = new StoreEventHandler[0];
+
+    // the events waiting to be delivered, and whether one is being delivered. only accessed on
+    // the lane's thread.
+    private final ArrayDeque<Object> mDispatchQueue = new ArrayDeque<Object>();
+    private boolean mDispatching = false;
+}
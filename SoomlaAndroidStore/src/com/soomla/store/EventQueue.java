@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.store;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded queue of operations on the event bus (an operation code and its argument), that any
+ * number of threads may offer to without locking, and that a single thread drains.
+ *
+ * Every slot of the ring has a sequence number, which tells whether the slot is free for the
+ * producer at a given position or holds the entry the consumer is waiting for. Producers claim a
+ * position with a CAS on the tail; the consumer owns the head.
+ */
+final class EventQueue {
+
+    /**
+     * Receives the entries of the queue when it's drained.
+     */
+    interface Consumer {
+        void accept(int op, Object arg);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param capacity the maximum number of entries, rounded up to a power of two
+     */
+    EventQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mMask = size - 1;
+        mOps = new int[size];
+        mArgs = new AtomicReferenceArray<Object>(size);
+        mSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            mSequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds the given entry to the end of the queue. May be called from any thread.
+     *
+     * @param op the operation
+     * @param arg the argument of the operation
+     * @return true if the entry was added, false if the queue is full
+     */
+    boolean offer(int op, Object arg) {
+        long position;
+        int index;
+        while (true) {
+            position = mTail.get();
+            index = (int) position & mMask;
+            long diff = mSequences.get(index) - position;
+            if (diff == 0) {
+                if (mTail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                // the consumer hasn't freed this slot yet
+                return false;
+            }
+            // else another producer claimed this position, try the next one
+        }
+
+        mOps[index] = op;
+        mArgs.set(index, arg);
+        // publishes the entry, together with its op
+        mSequences.set(index, position + 1);
+        return true;
+    }
+
+    /**
+     * Passes up to <code>max</code> entries to the given consumer, in the order they were added.
+     * Must only be called from the consuming thread.
+     *
+     * @param consumer receives the entries
+     * @param max the maximum number of entries to drain
+     * @return the number of entries that were drained
+     */
+    int drain(Consumer consumer, int max) {
+        int count = 0;
+        while (count < max) {
+            long position = mHead;
+            int index = (int) position & mMask;
+            if (mSequences.get(index) != position + 1) {
+                // empty, or the producer of the next entry is still writing it
+                break;
+            }
+
+            int op = mOps[index];
+            Object arg = mArgs.get(index);
+            mArgs.set(index, null);
+            mHead = position + 1;
+            // frees the slot for the producer that will wrap around to it
+            mSequences.set(index, position + mMask + 1);
+
+            consumer.accept(op, arg);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Checks if there are entries in the queue. May be called from any thread, but only the
+     * consuming thread gets an exact answer.
+     *
+     * @return true if the queue is empty
+     */
+    boolean isEmpty() {
+        return mTail.get() == mHead;
+    }
+
+
+    /** Private Members **/
+
+    private final int mMask;
+
+    // the entries. an op is published by the write of its arg and sequence that follow it.
+    private final int[] mOps;
+    private final AtomicReferenceArray<Object> mArgs;
+    private final AtomicLongArray mSequences;
+
+    private final AtomicLong mTail = new AtomicLong();
+
+    // only accessed by the consuming thread, but read by isEmpty() on others
+    private volatile long mHead = 0;
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.store;
+
+import android.text.TextUtils;
+import com.soomla.store.data.KeyValDatabase;
+import com.soomla.store.data.StorageManager;
+import com.soomla.store.data.StoreInfo;
+import com.soomla.store.domain.NonConsumableItem;
+import com.soomla.store.domain.VirtualItem;
+import com.soomla.store.domain.virtualCurrencies.VirtualCurrency;
+import com.soomla.store.domain.virtualGoods.EquippableVG;
+import com.soomla.store.domain.virtualGoods.UpgradeVG;
+import com.soomla.store.domain.virtualGoods.VirtualGood;
+import com.soomla.store.exceptions.VirtualItemNotFoundException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable picture of the whole inventory (balances, equipped goods, upgrades and
+ * non-consumable items) taken at one point in time with {@link StoreInventory#snapshot()}.
+ *
+ * All of the state is loaded from storage in a single pass, so a store screen can render every
+ * item from the snapshot without any further I/O.
+ *
+ * NOTE: The snapshot doesn't change when the inventory does. Take a new one after you get a
+ * balance changed, equipped or upgrade event.
+ */
+public final class InventorySnapshot {
+
+    /**
+     * Constructor
+     * Loads the inventory of all the items in <code>StoreInfo</code>.
+     */
+    InventorySnapshot() {
+        List<VirtualCurrency> currencies = StoreInfo.getCurrencies();
+        List<VirtualGood> goods = StoreInfo.getGoods();
+        List<NonConsumableItem> nonConsumables = StoreInfo.getNonConsumableItems();
+
+        List<String> keys = new ArrayList<String>();
+        for (VirtualCurrency currency : currencies) {
+            keys.add(KeyValDatabase.keyCurrencyBalance(currency.getItemId()));
+        }
+        for (VirtualGood good : goods) {
+            keys.add(KeyValDatabase.keyGoodBalance(good.getItemId()));
+            keys.add(KeyValDatabase.keyGoodUpgrade(good.getItemId()));
+            if (good instanceof EquippableVG) {
+                keys.add(KeyValDatabase.keyGoodEquipped(good.getItemId()));
+            }
+        }
+        for (NonConsumableItem non : nonConsumables) {
+            keys.add(KeyValDatabase.keyNonConsExists(non.getItemId()));
+        }
+
+        Map<String, String> vals = StorageManager.getKeyValueStorage().getValues(keys);
+
+        HashMap<String, Integer> balances = new HashMap<String, Integer>();
+        HashSet<String> equipped = new HashSet<String>();
+        HashMap<String, String> upgrades = new HashMap<String, String>();
+        HashMap<String, Integer> upgradeLevels = new HashMap<String, Integer>();
+        HashSet<String> nonConsumablesOwned = new HashSet<String>();
+
+        for (VirtualCurrency currency : currencies) {
+            balances.put(currency.getItemId(), parseBalance(
+                    vals.get(KeyValDatabase.keyCurrencyBalance(currency.getItemId()))));
+        }
+        for (VirtualGood good : goods) {
+            String itemId = good.getItemId();
+            balances.put(itemId, parseBalance(vals.get(KeyValDatabase.keyGoodBalance(itemId))));
+
+            if (vals.containsKey(KeyValDatabase.keyGoodEquipped(itemId))) {
+                equipped.add(itemId);
+            }
+
+            String upgradeItemId = vals.get(KeyValDatabase.keyGoodUpgrade(itemId));
+            if (!TextUtils.isEmpty(upgradeItemId)) {
+                upgrades.put(itemId, upgradeItemId);
+                upgradeLevels.put(itemId, upgradeLevel(itemId, upgradeItemId));
+            }
+        }
+        for (NonConsumableItem non : nonConsumables) {
+            if (vals.containsKey(KeyValDatabase.keyNonConsExists(non.getItemId()))) {
+                nonConsumablesOwned.add(non.getItemId());
+            }
+        }
+
+        mBalances = Collections.unmodifiableMap(balances);
+        mEquipped = Collections.unmodifiableSet(equipped);
+        mUpgrades = Collections.unmodifiableMap(upgrades);
+        mUpgradeLevels = Collections.unmodifiableMap(upgradeLevels);
+        mNonConsumables = Collections.unmodifiableSet(nonConsumablesOwned);
+    }
+
+    /**
+     * Retrieves the balance of the virtual item with the given <code>itemId</code>.
+     *
+     * @param itemId id of the virtual item (a good or a currency)
+     * @return the balance of the item, or 0 if it's not a good or a currency
+     */
+    public int getBalance(String itemId) {
+        Integer balance = mBalances.get(itemId);
+        return balance != null ? balance : 0;
+    }
+
+    /**
+     * Checks if the virtual good with the given <code>goodItemId</code> is equipped.
+     *
+     * @param goodItemId id of the virtual good
+     * @return true if the good is equipped, false otherwise
+     */
+    public boolean isEquipped(String goodItemId) {
+        return mEquipped.contains(goodItemId);
+    }
+
+    /**
+     * Retrieves the itemId of the current upgrade of the virtual good with the given
+     * <code>goodItemId</code>.
+     *
+     * @param goodItemId id of the virtual good
+     * @return upgrade id if exists, or empty string otherwise
+     */
+    public String getGoodCurrentUpgrade(String goodItemId) {
+        String upgradeItemId = mUpgrades.get(goodItemId);
+        return upgradeItemId != null ? upgradeItemId : "";
+    }
+
+    /**
+     * Retrieves the upgrade level of the virtual good with the given <code>goodItemId</code>.
+     * See {@link StoreInventory#getGoodUpgradeLevel(String)}.
+     *
+     * @param goodItemId id of the virtual good
+     * @return upgrade level of the good, or 0 if it has no upgrade
+     */
+    public int getGoodUpgradeLevel(String goodItemId) {
+        Integer level = mUpgradeLevels.get(goodItemId);
+        return level != null ? level : 0;
+    }
+
+    /**
+     * Checks if the non-consumable with the given <code>nonConsItemId</code> exists.
+     *
+     * @param nonConsItemId id of the non-consumable item
+     * @return true if the non-consumable item exists, false otherwise
+     */
+    public boolean nonConsumableItemExists(String nonConsItemId) {
+        return mNonConsumables.contains(nonConsItemId);
+    }
+
+
+    /** Setters and Getters **/
+
+    public Map<String, Integer> getBalances() {
+        return mBalances;
+    }
+
+    public Set<String> getEquippedGoods() {
+        return mEquipped;
+    }
+
+
+    /** Private functions **/
+
+    /**
+     * Parses a balance value from storage.
+     */
+    private static int parseBalance(String val) {
+        if (TextUtils.isEmpty(val)) {
+            return 0;
+        }
+        return Integer.parseInt(val);
+    }
+
+    /**
+     * Finds the level of the given upgrade of the good with the given <code>goodItemId</code>.
+     */
+    private static int upgradeLevel(String goodItemId, String upgradeItemId) {
+        try {
+            VirtualItem upgrade = StoreInfo.getVirtualItem(upgradeItemId);
+            if (upgrade instanceof UpgradeVG
+                    && ((UpgradeVG) upgrade).getGoodItemId().equals(goodItemId)) {
+                return StoreInfo.getUpgradeLevel((UpgradeVG) upgrade);
+            }
+        } catch (VirtualItemNotFoundException e) {
+            // handled below
+        }
+        StoreUtils.LogError(TAG, "The current upgrade of " + goodItemId + " isn't one of its "
+                + "upgrades: " + upgradeItemId);
+        return 0;
+    }
+
+
+    /** Private Members **/
+
+    private static final String TAG = "SOOMLA InventorySnapshot"; //used for Log messages
+
+    private final Map<String, Integer> mBalances;
+
+    private final Set<String> mEquipped;
+
+    private final Map<String, String> mUpgrades;
+
+    private final Map<String, Integer> mUpgradeLevels;
+
+    private final Set<String> mNonConsumables;
+}
@@ -18,6 +18,7 @@ package com.soomla.store;
 
 import android.app.Application;
 import android.content.Context;
+import com.soomla.store.data.StorageManager;
 
 public class SoomlaApp extends Application{
 
@@ -34,6 +35,21 @@ public class SoomlaApp extends Application{
         context = getApplicationContext();
     }
 
+    /**
+     * Starts flushing pending asynchronous storage writes when the application's UI goes to the
+     * background, since the process may be killed at any time after that. The flush runs on the
+     * writer thread, so the main thread isn't blocked while the app is being hidden.
+     *
+     * @param level the context of the trim
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            StorageManager.flushAsync();
+        }
+    }
+
 
     /** Setters and Getters */
 
@@ -47,6 +47,16 @@ public class StoreConfig {
     public static final boolean friendlyRefunds = false;
 
     public static String RECEIPT_VALIDATOR = null;
+
+    // A lazyCatalog tells android-store to construct the items of the store's metadata only when
+    // they're first used, instead of all of them on startup. Useful for very large catalogs.
+    // (default: false)
+    public static boolean lazyCatalog = false;
+
+    // A poolEvents tells android-store to reuse the instances of its most frequent events (balance
+    // changes, equipping and unequipping) instead of allocating new ones. Turn it on only if your
+    // subscribers don't keep these events after handling them. (default: false)
+    public static boolean poolEvents = false;
     
     /**
      * The obfuscated salt: randomly generated numbers.
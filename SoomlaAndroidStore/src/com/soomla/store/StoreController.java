@@ -20,6 +20,9 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 
 import com.soomla.store.billing.IIabService;
 import com.soomla.store.billing.IabCallbacks;
@@ -53,6 +56,12 @@ import com.soomla.store.util.ReceiptValidator;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * This class holds the basic assets needed to operate the Store.
@@ -72,63 +81,106 @@ public class StoreController {
      * @param customSecret your encryption secret (it's used to encrypt your data in the database)
      */
     public boolean initialize(IStoreAssets storeAssets, String customSecret) {
-        if (mInitialized) {
-            String err = "StoreController is already initialized. You can't initialize it twice!";
-            handleErrorResult(err);
+        if (!beginInitialize()) {
             return false;
         }
 
         StoreUtils.LogDebug(TAG, "StoreController Initializing ...");
+        long startTime = SystemClock.elapsedRealtime();
 
-        if (mInAppBillingService == null) {
-            StoreUtils.LogDebug(TAG, "Searching for the attached IAB Service.");
-
-            Class<?> aClass = null;
-            aClass = tryFetchIabService();
-            if (aClass == null) {
-                String err = "You don't have a billing service attached. " +
-                        "Decide which billing service you want, add it to AndroidManifest.xml " +
-                        "and add its jar to the path.";
-                handleErrorResult(err);
-                return false;
-            }
-
-            try {
-                mInAppBillingService = (IIabService) aClass.newInstance();
-            } catch (Exception e) {
-                String err = "Couldn't instantiate IIabService class. Something's totally wrong here.";
-                handleErrorResult(err);
-                return false;
+        boolean loaded = false;
+        try {
+            loaded = loadStore(storeAssets, customSecret);
+        } finally {
+            if (!loaded) {
+                endInitialize(false);
             }
         }
-
-        SharedPreferences prefs = new ObscuredSharedPreferences(SoomlaApp.getAppContext().
-                getSharedPreferences(StoreConfig.PREFS_NAME, Context.MODE_PRIVATE));
-        SharedPreferences.Editor edit = prefs.edit();
-
-        if (customSecret != null && customSecret.length() != 0) {
-            edit.putString(StoreConfig.CUSTOM_SEC, customSecret);
-        } else if (prefs.getString(StoreConfig.CUSTOM_SEC, "").length() == 0) {
-        	String err = "customSecret is null or empty. Can't initialize store!!";
-            StoreUtils.LogError(TAG, err);
-            BusProvider.getInstance().post(new UnexpectedStoreErrorEvent(err));
+        if (!loaded) {
             return false;
         }
-        edit.putInt("SA_VER_NEW", storeAssets.getVersion());
-        edit.commit();
 
-        if (storeAssets != null) {
-            StoreInfo.setStoreAssets(storeAssets);
+        refreshInventory();
+
+        StoreUtils.LogDebug(TAG, "StoreController initialized in "
+                + (SystemClock.elapsedRealtime() - startTime) + "ms.");
+
+        endInitialize(true);
+        return true;
+    }
+
+    /**
+     * Initializes the SOOMLA SDK in the background.
+     * Works like {@link #initialize(IStoreAssets, String)}, except that loading the store's
+     * metadata from the database (or from the given <code>IStoreAssets</code> the first time)
+     * happens on a background thread, so the calling thread (usually the main thread, in
+     * <code>onCreate</code>) isn't blocked by it. The billing service is started on the main
+     * thread once the metadata is loaded.
+     *
+     * A <code>StoreControllerInitializedEvent</code> is posted when <code>StoreController</code>
+     * is initialized. Don't use <code>StoreInfo</code> or <code>StoreInventory</code> before that.
+     *
+     * @param storeAssets the definition of your application specific assets.
+     * @param customSecret your encryption secret (it's used to encrypt your data in the database)
+     * @return a future that's resolved to true when <code>StoreController</code> is initialized,
+     *     or to false if it couldn't be initialized
+     */
+    public Future<Boolean> initializeAsync(final IStoreAssets storeAssets,
+                                           final String customSecret) {
+        if (!beginInitialize()) {
+            FutureTask<Boolean> failed = new FutureTask<Boolean>(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return false;
+                }
+            });
+            failed.run();
+            return failed;
         }
 
-        // Update SOOMLA store from DB
-        StoreInfo.initializeFromDB();
+        StoreUtils.LogDebug(TAG, "StoreController Initializing in the background ...");
+        final long startTime = SystemClock.elapsedRealtime();
 
-        refreshInventory();
+        ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "SOOMLA StoreController initialize");
+            }
+        });
+        Future<Boolean> future = executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                boolean loaded = false;
+                try {
+                    loaded = loadStore(storeAssets, customSecret);
+                } catch (RuntimeException e) {
+                    handleErrorResult("Couldn't load the store: " + e.getMessage());
+                } finally {
+                    // even if an Error is thrown, so StoreController can be initialized again
+                    if (!loaded) {
+                        endInitialize(false);
+                    }
+                }
+                if (!loaded) {
+                    return false;
+                }
 
-        mInitialized = true;
-        BusProvider.getInstance().post(new StoreControllerInitializedEvent());
-        return true;
+                new Handler(Looper.getMainLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        refreshInventory();
+                    }
+                });
+
+                StoreUtils.LogDebug(TAG, "StoreController initialized in the background in "
+                        + (SystemClock.elapsedRealtime() - startTime) + "ms.");
+
+                endInitialize(true);
+                return true;
+            }
+        });
+        executor.shutdown();
+        return future;
     }
 
     /**
@@ -270,6 +322,8 @@ public class StoreController {
                                         StoreUtils.LogDebug(TAG, "Market items details refreshed");
 
                                         List<MarketItem> marketItems = new ArrayList<MarketItem>();
+                                        List<PurchasableVirtualItem> refreshedItems =
+                                                new ArrayList<PurchasableVirtualItem>();
                                         if (skuDetails.size() > 0) {
                                             for (IabSkuDetails iabSkuDetails : skuDetails) {
                                             	String productId = iabSkuDetails.getSku();
@@ -297,6 +351,7 @@ public class StoreController {
                                                     mi.setMarketCurrencyCode(currencyCode);
                                                     
                                                     marketItems.add(mi);
+                                                    refreshedItems.add(pvi);
                                                 } catch (VirtualItemNotFoundException e) {
                                                     String msg = "(refreshInventory) Couldn't find a "
                                                             + "purchasable item associated with: " + productId;
@@ -304,6 +359,8 @@ public class StoreController {
                                                 }
                                             }
                                         }
+                                        // saves the refreshed items only, not the whole metadata
+                                        StoreInfo.save(refreshedItems);
                                         BusProvider.getInstance().post(new MarketItemsRefreshFinishedEvent(marketItems));
                                     }
 
@@ -604,6 +661,90 @@ public class StoreController {
         }
     }
 
+    /**
+     * Marks <code>StoreController</code> as initializing, unless it's initialized or being
+     * initialized already.
+     *
+     * @return true if the initialization can go on, false otherwise
+     */
+    private synchronized boolean beginInitialize() {
+        if (mInitialized || mInitializing) {
+            String err = "StoreController is already initialized. You can't initialize it twice!";
+            handleErrorResult(err);
+            return false;
+        }
+        mInitializing = true;
+        return true;
+    }
+
+    /**
+     * Marks the end of the initialization, and posts a <code>StoreControllerInitializedEvent</code>
+     * if it succeeded.
+     *
+     * @param success true if <code>StoreController</code> is initialized
+     */
+    private void endInitialize(boolean success) {
+        synchronized (this) {
+            mInitializing = false;
+            mInitialized = success;
+        }
+        if (success) {
+            BusProvider.getInstance().post(new StoreControllerInitializedEvent());
+        }
+    }
+
+    /**
+     * Finds the billing service, saves the custom secret and loads the store's metadata with
+     * {@link com.soomla.store.data.StoreInfo#setStoreAssets(IStoreAssets)}, which initializes it
+     * from the database, or from the given <code>IStoreAssets</code> the first time.
+     *
+     * @param storeAssets the definition of your application specific assets.
+     * @param customSecret your encryption secret
+     * @return true if the store was loaded, false otherwise
+     */
+    private boolean loadStore(IStoreAssets storeAssets, String customSecret) {
+        if (mInAppBillingService == null) {
+            StoreUtils.LogDebug(TAG, "Searching for the attached IAB Service.");
+
+            Class<?> aClass = null;
+            aClass = tryFetchIabService();
+            if (aClass == null) {
+                String err = "You don't have a billing service attached. " +
+                        "Decide which billing service you want, add it to AndroidManifest.xml " +
+                        "and add its jar to the path.";
+                handleErrorResult(err);
+                return false;
+            }
+
+            try {
+                mInAppBillingService = (IIabService) aClass.newInstance();
+            } catch (Exception e) {
+                String err = "Couldn't instantiate IIabService class. Something's totally wrong here.";
+                handleErrorResult(err);
+                return false;
+            }
+        }
+
+        SharedPreferences prefs = new ObscuredSharedPreferences(SoomlaApp.getAppContext().
+                getSharedPreferences(StoreConfig.PREFS_NAME, Context.MODE_PRIVATE));
+        SharedPreferences.Editor edit = prefs.edit();
+
+        if (customSecret != null && customSecret.length() != 0) {
+            edit.putString(StoreConfig.CUSTOM_SEC, customSecret);
+        } else if (prefs.getString(StoreConfig.CUSTOM_SEC, "").length() == 0) {
+        	String err = "customSecret is null or empty. Can't initialize store!!";
+            StoreUtils.LogError(TAG, err);
+            BusProvider.getInstance().post(new UnexpectedStoreErrorEvent(err));
+            return false;
+        }
+        edit.putInt("SA_VER_NEW", storeAssets.getVersion());
+        edit.commit();
+
+        // setStoreAssets initializes StoreInfo from the database if the metadata is there
+        StoreInfo.setStoreAssets(storeAssets);
+        return true;
+    }
+
     /**
      * Fetches the associated billing service according to the meta-data tag in AndroidManifest.xml.
      *
@@ -666,7 +807,8 @@ public class StoreController {
     /* Private Members */
 
     private static final String TAG = "SOOMLA StoreController"; //used for Log messages
-    private boolean mInitialized = false;
+    private volatile boolean mInitialized = false;
+    private boolean mInitializing = false;
     private IIabService mInAppBillingService;
 
 }
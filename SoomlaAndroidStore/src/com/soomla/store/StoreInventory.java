@@ -19,6 +19,7 @@ package com.soomla.store;
 import android.text.TextUtils;
 import com.soomla.store.data.StorageManager;
 import com.soomla.store.data.StoreInfo;
+import com.soomla.store.data.VirtualItemStorage;
 import com.soomla.store.domain.NonConsumableItem;
 import com.soomla.store.domain.PurchasableVirtualItem;
 import com.soomla.store.domain.VirtualItem;
@@ -51,6 +52,19 @@ public class StoreInventory {
         pvi.buy();
     }
 
+    /**
+     * Takes an immutable snapshot of the whole inventory: the balances of all goods and
+     * currencies, equipped goods, current upgrades and owned non-consumable items.
+     * Everything is loaded in a single pass over the storage, so use this instead of calling
+     * <code>getVirtualItemBalance</code>, <code>isVirtualGoodEquipped</code> etc. for every item
+     * when you render a store screen.
+     *
+     * @return the inventory snapshot
+     */
+    public static InventorySnapshot snapshot() {
+        return new InventorySnapshot();
+    }
+
     /** VIRTUAL ITEMS **/
 
     /**
@@ -65,6 +79,36 @@ public class StoreInventory {
         return StorageManager.getVirtualItemStorage(item).getBalance(item);
     }
 
+    /**
+     * Retrieves the handle of the virtual item with the given <code>itemId</code>. Look the handle
+     * up once and use it with the overloads that take a handle wherever the same item is accessed
+     * over and over (for example in every frame of a game loop).
+     *
+     * @param itemId id of the virtual item
+     * @return the handle of the virtual item
+     * @throws VirtualItemNotFoundException
+     */
+    public static int getItemHandle(String itemId) throws VirtualItemNotFoundException {
+        return StoreInfo.getItemHandle(itemId);
+    }
+
+    /**
+     * Retrieves the balance of the virtual item with the given handle. Unlike
+     * {@link #getVirtualItemBalance(String)}, this doesn't allocate anything once the balance is
+     * cached.
+     *
+     * @param handle the handle of the virtual item, see {@link #getItemHandle(String)}
+     * @return balance of the virtual item with the given handle.
+     * @throws VirtualItemNotFoundException if the item with the given handle has no balance
+     */
+    public static int getVirtualItemBalance(int handle) throws VirtualItemNotFoundException {
+        VirtualItemStorage storage = StorageManager.getVirtualItemStorage(handle);
+        if (storage == null) {
+            throw new VirtualItemNotFoundException("handle", String.valueOf(handle));
+        }
+        return storage.getBalance(handle);
+    }
+
     /**
      * Gives your user the given amount of the virtual item with the given <code>itemId</code>.
      * For example, when your user plays your game for the first time you GIVE him/her 1000 gems.
@@ -83,6 +127,20 @@ public class StoreInventory {
         item.give(amount);
     }
 
+    /**
+     * Gives your user the given amount of the virtual item with the given handle.
+     * See {@link #giveVirtualItem(String, int)}.
+     *
+     * @param handle the handle of the virtual item to be given, see {@link #getItemHandle(String)}
+     * @param amount amount of the item to be given
+     * @throws VirtualItemNotFoundException
+     */
+    public static void giveVirtualItem(int handle, int amount)
+            throws VirtualItemNotFoundException  {
+        VirtualItem item = StoreInfo.getVirtualItem(handle);
+        item.give(amount);
+    }
+
     /**
      * Takes from your user the given amount of the virtual item with the given <code>itemId</code>.
      * For example, when your user requests a refund you need to TAKE the item he/she is returning.
@@ -97,6 +155,20 @@ public class StoreInventory {
         item.take(amount);
     }
 
+    /**
+     * Takes from your user the given amount of the virtual item with the given handle.
+     * See {@link #takeVirtualItem(String, int)}.
+     *
+     * @param handle the handle of the virtual item to be taken, see {@link #getItemHandle(String)}
+     * @param amount amount of the item to be taken
+     * @throws VirtualItemNotFoundException
+     */
+    public static void takeVirtualItem(int handle, int amount)
+            throws VirtualItemNotFoundException  {
+        VirtualItem item = StoreInfo.getVirtualItem(handle);
+        item.take(amount);
+    }
+
     /** VIRTUAL GOODS **/
 
     /**
@@ -176,14 +248,7 @@ public class StoreInventory {
             return 0; //no upgrade
         }
 
-        UpgradeVG first = StoreInfo.getGoodFirstUpgrade(goodItemId);
-        int level = 1;
-        while (!first.equals(upgradeVG)) {
-            first = (UpgradeVG) StoreInfo.getVirtualItem(first.getNextItemId());
-            level++;
-        }
-
-        return level;
+        return StoreInfo.getUpgradeLevel(upgradeVG);
     }
 
     /**
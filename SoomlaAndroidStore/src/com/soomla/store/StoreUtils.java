@@ -18,6 +18,8 @@ package com.soomla.store;
 
 import android.provider.Settings;
 import android.util.Log;
+import com.soomla.store.data.KeyValueStorage;
+import com.soomla.store.data.ObscuredSharedPreferences;
 
 /**
  * This class provides Log functions that output debug, warning, or error messages.
@@ -58,25 +60,54 @@ public class StoreUtils {
 
     /**
      * Retrieves Android device Id.
+     * The id is fetched from <code>Settings.Secure</code> only once and then cached for the rest
+     * of the process' lifetime. See {@link #invalidateDeviceId()}.
      *
      * @return androidId which is the id of the device being used
      */
     public static String deviceId() {
-        String androidId = Settings.Secure.getString(SoomlaApp.getAppContext().getContentResolver(),
-                Settings.Secure.ANDROID_ID);
-        if (androidId == null) {
-            // This is a fallback in case the device id cannot be retrieved on the device
-            // (happened on some devices !)
-            StoreUtils.LogError("SOOMLA ObscuredSharedPreferences",
-                    "Couldn't fetch ANDROID_ID. Using fake id.");
-            androidId = "SOOMFAKE";
+        String androidId = mDeviceId;
+        if (androidId != null) {
+            return androidId;
         }
 
-        return androidId;
+        synchronized (StoreUtils.class) {
+            if (mDeviceId == null) {
+                androidId = Settings.Secure.getString(
+                        SoomlaApp.getAppContext().getContentResolver(), Settings.Secure.ANDROID_ID);
+                if (androidId == null) {
+                    // This is a fallback in case the device id cannot be retrieved on the device
+                    // (happened on some devices !)
+                    StoreUtils.LogError("SOOMLA ObscuredSharedPreferences",
+                            "Couldn't fetch ANDROID_ID. Using fake id.");
+                    androidId = "SOOMFAKE";
+                }
+                mDeviceId = androidId;
+            }
+            return mDeviceId;
+        }
+    }
+
+    /**
+     * Forgets the cached device id, and the keys derived from it in
+     * {@link com.soomla.store.data.ObscuredSharedPreferences} and
+     * {@link com.soomla.store.data.KeyValueStorage}, so it's fetched again on the next call to
+     * {@link #deviceId()}.
+     *
+     * NOTE: Data that was already encrypted with the old id can't be read with the new one.
+     */
+    public static void invalidateDeviceId() {
+        synchronized (StoreUtils.class) {
+            mDeviceId = null;
+        }
+        ObscuredSharedPreferences.invalidateKeys();
+        KeyValueStorage.invalidateKeys();
     }
 
 
     /** Private Members **/
 
     private static String TAG = "SOOMLA StoreUtils"; //used for Log messages
+
+    private static volatile String mDeviceId;
 }
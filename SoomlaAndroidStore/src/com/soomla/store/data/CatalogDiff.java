@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.store.data;
+
+import com.soomla.store.domain.MarketItem;
+import com.soomla.store.domain.NonConsumableItem;
+import com.soomla.store.domain.PurchasableVirtualItem;
+import com.soomla.store.domain.VirtualCategory;
+import com.soomla.store.domain.VirtualItem;
+import com.soomla.store.domain.virtualCurrencies.VirtualCurrency;
+import com.soomla.store.domain.virtualCurrencies.VirtualCurrencyPack;
+import com.soomla.store.domain.virtualGoods.EquippableVG;
+import com.soomla.store.domain.virtualGoods.SingleUsePackVG;
+import com.soomla.store.domain.virtualGoods.UpgradeVG;
+import com.soomla.store.domain.virtualGoods.VirtualGood;
+import com.soomla.store.events.StoreMetadataChangedEvent;
+import com.soomla.store.purchaseTypes.PurchaseType;
+import com.soomla.store.purchaseTypes.PurchaseWithMarket;
+import com.soomla.store.purchaseTypes.PurchaseWithVirtualItem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The difference between the saved store metadata and a new version of it: the items that were
+ * added, removed and changed, the categories that changed and the goods whose upgrades changed.
+ *
+ * Two versions of an item are the same if they're of the same class and their fields are equal.
+ * The fields are the ones {@link CatalogWriter} saves, except for the details that are fetched
+ * from the market, which aren't part of <code>IStoreAssets</code>.
+ */
+final class CatalogDiff {
+
+    /**
+     * Constructor
+     * Compares the given snapshot of the saved metadata with the given new version of it.
+     *
+     * @param old a snapshot of the saved metadata, that isn't lazy
+     * @param currencies the new virtual currencies
+     * @param currencyPacks the new virtual currency packs
+     * @param goods the new virtual goods
+     * @param categories the new virtual categories
+     * @param nonConsumables the new non-consumable items
+     */
+    CatalogDiff(CatalogSnapshot old,
+                List<VirtualCurrency> currencies,
+                List<VirtualCurrencyPack> currencyPacks,
+                List<VirtualGood> goods,
+                List<VirtualCategory> categories,
+                List<NonConsumableItem> nonConsumables) {
+        HashSet<String> newItemIds = new HashSet<String>();
+
+        // unchanged items are taken from the old version, so references to them stay valid
+        List<VirtualCurrency> mergedCurrencies =
+                merge(old, currencies, VirtualCurrency.class, newItemIds);
+        List<VirtualCurrencyPack> mergedCurrencyPacks =
+                merge(old, currencyPacks, VirtualCurrencyPack.class, newItemIds);
+        List<VirtualGood> mergedGoods = merge(old, goods, VirtualGood.class, newItemIds);
+        List<NonConsumableItem> mergedNonConsumables =
+                merge(old, nonConsumables, NonConsumableItem.class, newItemIds);
+
+        addRemoved(old.getCurrencies(), newItemIds);
+        addRemoved(old.getCurrencyPacks(), newItemIds);
+        addRemoved(old.getGoods(), newItemIds);
+        addRemoved(old.getNonConsumables(), newItemIds);
+
+        mAppendOnly = startsWith(mergedCurrencies, old.getCurrencies())
+                && startsWith(mergedCurrencyPacks, old.getCurrencyPacks())
+                && startsWith(mergedGoods, old.getGoods())
+                && startsWith(mergedNonConsumables, old.getNonConsumables());
+
+        HashMap<String, VirtualCategory> oldCategories = new HashMap<String, VirtualCategory>();
+        for (VirtualCategory category : old.getCategories()) {
+            oldCategories.put(category.getName(), category);
+        }
+        for (VirtualCategory category : categories) {
+            VirtualCategory oldCategory = oldCategories.remove(category.getName());
+            if (oldCategory == null
+                    || !oldCategory.getGoodsItemIds().equals(category.getGoodsItemIds())) {
+                mChangedCategories.add(category.getName());
+            }
+        }
+        mChangedCategories.addAll(oldCategories.keySet());
+
+        mSnapshot = CatalogSnapshot.of(mergedCurrencies, mergedCurrencyPacks, mergedGoods,
+                categories, mergedNonConsumables);
+
+        LinkedHashSet<String> upgradedGoodItemIds = new LinkedHashSet<String>();
+        for (List<VirtualGood> list : Arrays.asList(old.getGoods(), goods)) {
+            for (VirtualGood good : list) {
+                if (good instanceof UpgradeVG) {
+                    upgradedGoodItemIds.add(((UpgradeVG) good).getGoodItemId());
+                }
+            }
+        }
+        for (String goodItemId : upgradedGoodItemIds) {
+            if (!levels(old.getUpgradeChain(goodItemId))
+                    .equals(levels(mSnapshot.getUpgradeChain(goodItemId)))) {
+                mChangedUpgrades.add(goodItemId);
+            }
+        }
+    }
+
+
+    /** Setters and Getters **/
+
+    /**
+     * Retrieves a snapshot of the new version of the metadata, in which the items that didn't
+     * change are the instances from the old version.
+     *
+     * @return the snapshot
+     */
+    CatalogSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * Checks if the new version of the metadata is the same as the old one.
+     *
+     * @return true if nothing changed, false otherwise
+     */
+    boolean isEmpty() {
+        return mAddedItemIds.isEmpty() && mRemovedItemIds.isEmpty() && mChangedItemIds.isEmpty()
+                && mChangedCategories.isEmpty() && mChangedUpgrades.isEmpty();
+    }
+
+    /**
+     * Checks if the new version of the metadata can be saved by saving only the items that were
+     * added or changed on top of the old version: it has the same categories, no item was removed
+     * or moved, and the added items are at the end of the lists of their types.
+     *
+     * @return true if only the added and the changed items need to be saved
+     */
+    boolean isAppendOnly() {
+        return mAppendOnly && mChangedCategories.isEmpty();
+    }
+
+    /**
+     * Retrieves the new versions of the items that were added or changed.
+     *
+     * @return the items, in the order of the lists of their types
+     */
+    List<VirtualItem> getAddedAndChangedItems() {
+        return mAddedAndChangedItems;
+    }
+
+    /**
+     * Creates an event that lists the differences.
+     *
+     * @return the event
+     */
+    StoreMetadataChangedEvent toEvent() {
+        return new StoreMetadataChangedEvent(mAddedItemIds, mRemovedItemIds, mChangedItemIds,
+                new ArrayList<String>(mChangedCategories), new ArrayList<String>(mChangedUpgrades));
+    }
+
+
+    /** Private functions **/
+
+    /**
+     * Compares the given new items with their old versions.
+     *
+     * @return the new items, with the old instances of the items that didn't change
+     */
+    private <T extends VirtualItem> List<T> merge(CatalogSnapshot old, List<T> items,
+                                                 Class<T> type, Set<String> newItemIds) {
+        List<T> merged = new ArrayList<T>(items.size());
+        for (T item : items) {
+            String itemId = item.getItemId();
+            newItemIds.add(itemId);
+
+            VirtualItem oldItem = old.getVirtualItem(itemId);
+            if (oldItem == null) {
+                mAddedItemIds.add(itemId);
+                mAddedAndChangedItems.add(item);
+                merged.add(item);
+            } else if (oldItem.getClass() == item.getClass() && sameItem(oldItem, item)) {
+                merged.add(type.cast(oldItem));
+            } else {
+                mChangedItemIds.add(itemId);
+                mAddedAndChangedItems.add(item);
+                merged.add(item);
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Records the given old items that aren't in the new version as removed.
+     */
+    private void addRemoved(List<? extends VirtualItem> oldItems, Set<String> newItemIds) {
+        for (VirtualItem item : oldItems) {
+            if (!newItemIds.contains(item.getItemId())) {
+                mRemovedItemIds.add(item.getItemId());
+            }
+        }
+    }
+
+    /**
+     * Lists the itemIds of the upgrades in the given chain by level.
+     */
+    private static List<String> levels(UpgradeChain chain) {
+        List<String> upgradeItemIds = new ArrayList<String>();
+        for (int level = 1; chain != null && level <= chain.size(); level++) {
+            upgradeItemIds.add(chain.getUpgrade(level).getItemId());
+        }
+        return upgradeItemIds;
+    }
+
+    /**
+     * Checks if the given list of items starts with the items of the given old list, in the same
+     * order.
+     */
+    private static boolean startsWith(List<? extends VirtualItem> items,
+                                      List<? extends VirtualItem> oldItems) {
+        if (items.size() < oldItems.size()) {
+            return false;
+        }
+        for (int i = 0; i < oldItems.size(); i++) {
+            if (!items.get(i).getItemId().equals(oldItems.get(i).getItemId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the given versions of an item, which are of the same class, have the same fields.
+     */
+    private static boolean sameItem(VirtualItem oldItem, VirtualItem item) {
+        if (!equal(oldItem.getName(), item.getName())
+                || !equal(oldItem.getDescription(), item.getDescription())) {
+            return false;
+        }
+        if (item instanceof PurchasableVirtualItem
+                && !samePurchaseType(((PurchasableVirtualItem) oldItem).getPurchaseType(),
+                        ((PurchasableVirtualItem) item).getPurchaseType())) {
+            return false;
+        }
+
+        if (item instanceof VirtualCurrencyPack) {
+            VirtualCurrencyPack oldPack = (VirtualCurrencyPack) oldItem;
+            VirtualCurrencyPack pack = (VirtualCurrencyPack) item;
+            return oldPack.getCurrencyAmount() == pack.getCurrencyAmount()
+                    && equal(oldPack.getCurrencyItemId(), pack.getCurrencyItemId());
+        } else if (item instanceof UpgradeVG) {
+            UpgradeVG oldUpgrade = (UpgradeVG) oldItem;
+            UpgradeVG upgrade = (UpgradeVG) item;
+            return equal(oldUpgrade.getGoodItemId(), upgrade.getGoodItemId())
+                    && equal(oldUpgrade.getPrevItemId(), upgrade.getPrevItemId())
+                    && equal(oldUpgrade.getNextItemId(), upgrade.getNextItemId());
+        } else if (item instanceof EquippableVG) {
+            return ((EquippableVG) oldItem).getEquippingModel()
+                    == ((EquippableVG) item).getEquippingModel();
+        } else if (item instanceof SingleUsePackVG) {
+            SingleUsePackVG oldPack = (SingleUsePackVG) oldItem;
+            SingleUsePackVG pack = (SingleUsePackVG) item;
+            return oldPack.getGoodAmount() == pack.getGoodAmount()
+                    && equal(oldPack.getGoodItemId(), pack.getGoodItemId());
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the given purchase types charge the same, ignoring the details that are fetched
+     * from the market.
+     */
+    private static boolean samePurchaseType(PurchaseType oldPurchaseType,
+                                            PurchaseType purchaseType) {
+        if (oldPurchaseType instanceof PurchaseWithMarket
+                && purchaseType instanceof PurchaseWithMarket) {
+            MarketItem oldMarketItem = ((PurchaseWithMarket) oldPurchaseType).getMarketItem();
+            MarketItem marketItem = ((PurchaseWithMarket) purchaseType).getMarketItem();
+            return equal(oldMarketItem.getProductId(), marketItem.getProductId())
+                    && oldMarketItem.getManaged() == marketItem.getManaged()
+                    && oldMarketItem.getPrice() == marketItem.getPrice();
+        } else if (oldPurchaseType instanceof PurchaseWithVirtualItem
+                && purchaseType instanceof PurchaseWithVirtualItem) {
+            PurchaseWithVirtualItem oldPvi = (PurchaseWithVirtualItem) oldPurchaseType;
+            PurchaseWithVirtualItem pvi = (PurchaseWithVirtualItem) purchaseType;
+            return equal(oldPvi.getTargetItemId(), pvi.getTargetItemId())
+                    && oldPvi.getAmount() == pvi.getAmount();
+        }
+        return oldPurchaseType == null && purchaseType == null;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+
+    /** Private Members **/
+
+    // the new version of the metadata, with the old instances of the unchanged items
+    private final CatalogSnapshot mSnapshot;
+
+    private final List<String> mAddedItemIds = new ArrayList<String>();
+    private final List<String> mRemovedItemIds = new ArrayList<String>();
+    private final List<String> mChangedItemIds = new ArrayList<String>();
+    private final List<VirtualItem> mAddedAndChangedItems = new ArrayList<VirtualItem>();
+    private final Set<String> mChangedCategories = new LinkedHashSet<String>();
+    private final Set<String> mChangedUpgrades = new LinkedHashSet<String>();
+
+    // true if the new lists of items start with the old ones
+    private final boolean mAppendOnly;
+}
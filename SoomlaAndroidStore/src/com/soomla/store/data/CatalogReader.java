@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.store.data;
+
+import com.soomla.store.domain.MarketItem;
+import com.soomla.store.domain.NonConsumableItem;
+import com.soomla.store.domain.VirtualCategory;
+import com.soomla.store.domain.VirtualItem;
+import com.soomla.store.domain.virtualCurrencies.VirtualCurrency;
+import com.soomla.store.domain.virtualCurrencies.VirtualCurrencyPack;
+import com.soomla.store.domain.virtualGoods.EquippableVG;
+import com.soomla.store.domain.virtualGoods.LifetimeVG;
+import com.soomla.store.domain.virtualGoods.SingleUsePackVG;
+import com.soomla.store.domain.virtualGoods.SingleUseVG;
+import com.soomla.store.domain.virtualGoods.UpgradeVG;
+import com.soomla.store.domain.virtualGoods.VirtualGood;
+import com.soomla.store.purchaseTypes.PurchaseType;
+import com.soomla.store.purchaseTypes.PurchaseWithMarket;
+import com.soomla.store.purchaseTypes.PurchaseWithVirtualItem;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes store metadata that was encoded by {@link CatalogWriter}. See {@link CatalogWriter}
+ * for the description of the format.
+ */
+public final class CatalogReader {
+
+    /**
+     * Constructor
+     * Decodes the header, the item index and the categories of the given metadata. The items
+     * themselves are decoded only when they're asked for.
+     *
+     * @param data metadata encoded by {@link CatalogWriter}
+     * @throws IOException if the data is malformed, or was written in an unsupported version of
+     *     the format
+     */
+    public CatalogReader(byte[] data) throws IOException {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            if (buf.getInt() != MAGIC) {
+                throw new IOException("Not a SOOMLA catalog.");
+            }
+            mVersion = buf.getInt();
+            if (mVersion < 1 || mVersion > VERSION) {
+                throw new IOException("Unsupported catalog version: " + mVersion);
+            }
+
+            mData = data;
+            // a string is at least its length
+            int stringCount = readSize(buf, 4);
+            mStrings = new String[stringCount];
+            mStringOffsets = new int[stringCount];
+            mStringLengths = new int[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                mStringLengths[i] = readSize(buf, 1);
+                mStringOffsets[i] = buf.position();
+                buf.position(buf.position() + mStringLengths[i]);
+            }
+
+            // an item is at least its kind, its itemId, its productId and its length
+            int itemCount = readSize(buf, 13);
+            mKinds = new byte[itemCount];
+            mItemIds = new String[itemCount];
+            mProductIds = new String[itemCount];
+            mOffsets = new int[itemCount];
+            mLengths = new int[itemCount];
+            for (int i = 0; i < itemCount; i++) {
+                mKinds[i] = buf.get();
+                mItemIds[i] = string(buf.getInt());
+                mProductIds[i] = string(buf.getInt());
+                mLengths[i] = readSize(buf, 1);
+                mOffsets[i] = buf.position();
+                buf.position(buf.position() + mLengths[i]);
+            }
+
+            // a category is at least its name and its number of goods
+            int categoryCount = readSize(buf, 8);
+            List<VirtualCategory> categories = new ArrayList<VirtualCategory>(categoryCount);
+            for (int i = 0; i < categoryCount; i++) {
+                String name = string(buf.getInt());
+                int goodsCount = readSize(buf, 4);
+                ArrayList<String> goodsItemIds = new ArrayList<String>(goodsCount);
+                for (int j = 0; j < goodsCount; j++) {
+                    goodsItemIds.add(string(buf.getInt()));
+                }
+                categories.add(new VirtualCategory(name, goodsItemIds));
+            }
+            mCategories = categories;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("The catalog is truncated.");
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("The catalog is corrupted.");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("The catalog is corrupted.");
+        }
+    }
+
+
+    /**
+     * Decodes the item at the given position in the item index.
+     * Each call constructs a new instance of the item.
+     *
+     * @param index position of the item in the index, from 0 to <code>getItemCount() - 1</code>
+     * @return the decoded item
+     * @throws IOException if the item is malformed
+     */
+    public VirtualItem readItem(int index) throws IOException {
+        try {
+            return readItem(mKinds[index], mItemIds[index],
+                    ByteBuffer.wrap(mData, mOffsets[index], mLengths[index]));
+        } catch (BufferUnderflowException e) {
+            throw new IOException("The catalog item " + mItemIds[index] + " is truncated.");
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("The catalog item " + mItemIds[index] + " is corrupted.");
+        }
+    }
+
+
+    /** Setters and Getters **/
+
+    public int getItemCount() {
+        return mItemIds.length;
+    }
+
+    public String getItemId(int index) {
+        return mItemIds[index];
+    }
+
+    /**
+     * Retrieves the product id of the item at the given position in the item index.
+     *
+     * @param index position of the item in the index
+     * @return the product id, or null if the item isn't purchased with the market
+     */
+    public String getProductId(int index) {
+        return mProductIds[index];
+    }
+
+    byte getKind(int index) {
+        return mKinds[index];
+    }
+
+    /**
+     * Retrieves all of the virtual currencies, decoding all of the items on the first call to
+     * this or one of the other list getters.
+     *
+     * @return the virtual currencies
+     * @throws IOException if one of the items is malformed
+     */
+    public List<VirtualCurrency> getCurrencies() throws IOException {
+        readAll();
+        return mCurrencies;
+    }
+
+    public List<VirtualCurrencyPack> getCurrencyPacks() throws IOException {
+        readAll();
+        return mCurrencyPacks;
+    }
+
+    public List<VirtualGood> getGoods() throws IOException {
+        readAll();
+        return mGoods;
+    }
+
+    public List<NonConsumableItem> getNonConsumables() throws IOException {
+        readAll();
+        return mNonConsumables;
+    }
+
+    public List<VirtualCategory> getCategories() {
+        return mCategories;
+    }
+
+
+    /** Private functions **/
+
+    /**
+     * Constructs the <code>VirtualItem</code> of the given kind from its encoded body.
+     */
+    private VirtualItem readItem(byte kind, String itemId, ByteBuffer body) throws IOException {
+        String name = string(body.getInt());
+        String description = string(body.getInt());
+
+        PurchaseType purchaseType = null;
+        if (kind != KIND_CURRENCY) {
+            byte purchase = body.get();
+            if (purchase == PURCHASE_MARKET) {
+                String productId = string(body.getInt());
+                MarketItem.Managed managed = MarketItem.Managed.values()[body.get()];
+                MarketItem marketItem = new MarketItem(productId, managed, body.getDouble());
+                if (mVersion >= 2) {
+                    marketItem.setMarketPrice(body.getDouble());
+                    marketItem.setMarketTitle(string(body.getInt()));
+                    marketItem.setMarketDescription(string(body.getInt()));
+                    marketItem.setMarketPriceWithCurrencySymbol(string(body.getInt()));
+                    marketItem.setMarketCurrencyCode(string(body.getInt()));
+                }
+                purchaseType = new PurchaseWithMarket(marketItem);
+            } else if (purchase == PURCHASE_VI) {
+                String targetItemId = string(body.getInt());
+                purchaseType = new PurchaseWithVirtualItem(targetItemId, body.getInt());
+            } else {
+                throw new IOException("Unknown purchase type of " + itemId + ": " + purchase);
+            }
+        }
+
+        switch (kind) {
+            case KIND_CURRENCY:
+                return new VirtualCurrency(name, description, itemId);
+            case KIND_CURRENCY_PACK:
+                int currencyAmount = body.getInt();
+                return new VirtualCurrencyPack(name, description, itemId, currencyAmount,
+                        string(body.getInt()), purchaseType);
+            case KIND_SINGLE_USE:
+                return new SingleUseVG(name, description, itemId, purchaseType);
+            case KIND_LIFETIME:
+                return new LifetimeVG(name, description, itemId, purchaseType);
+            case KIND_EQUIPPABLE:
+                EquippableVG.EquippingModel equippingModel =
+                        EquippableVG.EquippingModel.values()[body.get()];
+                return new EquippableVG(equippingModel, name, description, itemId, purchaseType);
+            case KIND_SINGLE_USE_PACK:
+                String goodItemId = string(body.getInt());
+                return new SingleUsePackVG(goodItemId, body.getInt(), name, description, itemId,
+                        purchaseType);
+            case KIND_UPGRADE:
+                String upgradedItemId = string(body.getInt());
+                String prevItemId = string(body.getInt());
+                String nextItemId = string(body.getInt());
+                return new UpgradeVG(upgradedItemId, prevItemId, nextItemId, name, description,
+                        itemId, purchaseType);
+            case KIND_NON_CONSUMABLE:
+                if (!(purchaseType instanceof PurchaseWithMarket)) {
+                    throw new IOException("Non-consumable " + itemId + " isn't purchased with "
+                            + "the market.");
+                }
+                return new NonConsumableItem(name, description, itemId,
+                        (PurchaseWithMarket) purchaseType);
+            default:
+                throw new IOException("Unknown kind of " + itemId + ": " + kind);
+        }
+    }
+
+    /**
+     * Decodes all of the items into the lists of their types, unless they're decoded already.
+     */
+    private void readAll() throws IOException {
+        if (mCurrencies != null) {
+            return;
+        }
+
+        List<VirtualCurrency> currencies = new ArrayList<VirtualCurrency>();
+        List<VirtualCurrencyPack> currencyPacks = new ArrayList<VirtualCurrencyPack>();
+        List<VirtualGood> goods = new ArrayList<VirtualGood>();
+        List<NonConsumableItem> nonConsumables = new ArrayList<NonConsumableItem>();
+        for (int i = 0; i < mItemIds.length; i++) {
+            VirtualItem item = readItem(i);
+            if (item instanceof VirtualCurrency) {
+                currencies.add((VirtualCurrency) item);
+            } else if (item instanceof VirtualCurrencyPack) {
+                currencyPacks.add((VirtualCurrencyPack) item);
+            } else if (item instanceof VirtualGood) {
+                goods.add((VirtualGood) item);
+            } else if (item instanceof NonConsumableItem) {
+                nonConsumables.add((NonConsumableItem) item);
+            }
+        }
+
+        mCurrencyPacks = currencyPacks;
+        mGoods = goods;
+        mNonConsumables = nonConsumables;
+        mCurrencies = currencies;
+    }
+
+    /**
+     * Reads a count or a length, and checks it before anything is allocated for it: a corrupted
+     * one may be negative, or big enough to run out of memory.
+     *
+     * @param buf the data, positioned at the count
+     * @param elementSize the least number of bytes each of the counted elements takes
+     * @return the count
+     * @throws IOException if the rest of the data can't hold that many elements
+     */
+    private static int readSize(ByteBuffer buf, int elementSize) throws IOException {
+        int size = buf.getInt();
+        if (size < 0 || size > buf.remaining() / elementSize) {
+            throw new IOException("The catalog is corrupted.");
+        }
+        return size;
+    }
+
+    /**
+     * Retrieves the string at the given index of the string table, decoding it on first use.
+     */
+    private String string(int ref) {
+        if (ref < 0) {
+            return null;
+        }
+        String str = mStrings[ref];
+        if (str == null) {
+            str = new String(mData, mStringOffsets[ref], mStringLengths[ref], UTF8);
+            mStrings[ref] = str;
+        }
+        return str;
+    }
+
+
+    /** Private Members **/
+
+    static final int MAGIC = 0x53434154; // "SCAT"
+
+    static final int VERSION = 2;
+
+    static final byte KIND_CURRENCY = 1;
+    static final byte KIND_CURRENCY_PACK = 2;
+    static final byte KIND_SINGLE_USE = 3;
+    static final byte KIND_LIFETIME = 4;
+    static final byte KIND_EQUIPPABLE = 5;
+    static final byte KIND_SINGLE_USE_PACK = 6;
+    static final byte KIND_UPGRADE = 7;
+    static final byte KIND_NON_CONSUMABLE = 8;
+
+    static final byte PURCHASE_MARKET = 1;
+    static final byte PURCHASE_VI = 2;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private byte[] mData;
+
+    // the version of the format the catalog was written in
+    private int mVersion;
+
+    // the string table, decoded on demand
+    private String[] mStrings;
+    private int[] mStringOffsets;
+    private int[] mStringLengths;
+
+    // the item index: kind, itemId, productId and location of the body of every item
+    private byte[] mKinds;
+    private String[] mItemIds;
+    private String[] mProductIds;
+    private int[] mOffsets;
+    private int[] mLengths;
+
+    private List<VirtualCategory> mCategories;
+
+    // decoded on demand by readAll()
+    private List<VirtualCurrency> mCurrencies;
+
+    private List<VirtualCurrencyPack> mCurrencyPacks;
+
+    private List<VirtualGood> mGoods;
+
+    private List<NonConsumableItem> mNonConsumables;
+}
@@ -0,0 +1,1116 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.store.data;
+
+import com.soomla.store.StoreUtils;
+import com.soomla.store.domain.NonConsumableItem;
+import com.soomla.store.domain.PurchasableVirtualItem;
+import com.soomla.store.domain.VirtualCategory;
+import com.soomla.store.domain.VirtualItem;
+import com.soomla.store.domain.virtualCurrencies.VirtualCurrency;
+import com.soomla.store.domain.virtualCurrencies.VirtualCurrencyPack;
+import com.soomla.store.domain.virtualGoods.UpgradeVG;
+import com.soomla.store.domain.virtualGoods.VirtualGood;
+import com.soomla.store.purchaseTypes.PurchaseType;
+import com.soomla.store.purchaseTypes.PurchaseWithMarket;
+import com.soomla.store.purchaseTypes.PurchaseWithVirtualItem;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An immutable version of the store's metadata: the lists of items and the hashes that index
+ * them. <code>StoreInfo</code> holds the current snapshot and replaces it as a whole whenever the
+ * metadata changes, so a snapshot can be read from any thread without locking, and never changes
+ * while it's being read.
+ *
+ * A snapshot can also be lazy (see {@link #lazy(CatalogReader)}): it holds the binary catalog the
+ * metadata was loaded from and constructs items from it only when they're asked for. The items
+ * that were constructed are kept in a thread-safe cache that's shared by the snapshots that are
+ * derived from the same catalog, so there's never more than one instance of an item.
+ */
+final class CatalogSnapshot {
+
+    /**
+     * Creates a snapshot of the given items, and indexes them.
+     *
+     * @param currencies virtual currencies
+     * @param currencyPacks virtual currency packs
+     * @param goods virtual goods
+     * @param categories virtual categories
+     * @param nonConsumables non-consumable items
+     * @return the snapshot
+     */
+    static CatalogSnapshot of(List<VirtualCurrency> currencies,
+                              List<VirtualCurrencyPack> currencyPacks,
+                              List<VirtualGood> goods,
+                              List<VirtualCategory> categories,
+                              List<NonConsumableItem> nonConsumables) {
+        HashMap<String, VirtualItem> virtualItems = new HashMap<String, VirtualItem>();
+        HashMap<String, PurchasableVirtualItem> purchasableItems =
+                new HashMap<String, PurchasableVirtualItem>();
+        HashMap<String, List<UpgradeVG>> goodsUpgrades = new HashMap<String, List<UpgradeVG>>();
+        HashMap<String, Integer> itemPositions = new HashMap<String, Integer>();
+
+        indexAll(currencies, virtualItems, purchasableItems, goodsUpgrades, itemPositions);
+        indexAll(currencyPacks, virtualItems, purchasableItems, goodsUpgrades, itemPositions);
+        indexAll(goods, virtualItems, purchasableItems, goodsUpgrades, itemPositions);
+        indexAll(nonConsumables, virtualItems, purchasableItems, goodsUpgrades, itemPositions);
+
+        return new CatalogSnapshot(idsOf(currencies), idsOf(currencyPacks), idsOf(goods),
+                freeze(categories), idsOf(nonConsumables), virtualItems, purchasableItems,
+                indexCategories(categories), freezeValues(goodsUpgrades),
+                indexUpgradeChains(goodsUpgrades), itemPositions, indexGoodsByClass(goods),
+                indexGoodsByCategory(categories, virtualItems),
+                indexItemsByPurchaseTarget(currencyPacks, goods), null, null, null, null);
+    }
+
+    /**
+     * Creates a snapshot of the given catalog without constructing its items, except for the
+     * <code>UpgradeVG</code>s, which are needed to index the goods' upgrades.
+     *
+     * @param catalog the catalog read from the database
+     * @return the snapshot
+     * @throws IOException if one of the upgrades can't be decoded
+     */
+    static CatalogSnapshot lazy(CatalogReader catalog) throws IOException {
+        HashMap<String, VirtualItem> virtualItems = new HashMap<String, VirtualItem>();
+        HashMap<String, PurchasableVirtualItem> purchasableItems =
+                new HashMap<String, PurchasableVirtualItem>();
+        HashMap<String, List<UpgradeVG>> goodsUpgrades = new HashMap<String, List<UpgradeVG>>();
+        HashMap<String, Integer> catalogItemIndexes = new HashMap<String, Integer>();
+        HashMap<String, Integer> catalogProductIndexes = new HashMap<String, Integer>();
+
+        for (int i = 0; i < catalog.getItemCount(); i++) {
+            catalogItemIndexes.put(catalog.getItemId(i), i);
+            String productId = catalog.getProductId(i);
+            if (productId != null) {
+                catalogProductIndexes.put(productId, i);
+            }
+
+            if (catalog.getKind(i) == CatalogReader.KIND_UPGRADE) {
+                index(catalog.readItem(i), virtualItems, purchasableItems, goodsUpgrades);
+            }
+        }
+
+        List<VirtualCategory> categories = freeze(catalog.getCategories());
+        return new CatalogSnapshot(null, null, null, categories, null, virtualItems,
+                purchasableItems, indexCategories(categories), freezeValues(goodsUpgrades),
+                indexUpgradeChains(goodsUpgrades), null, null, null, null, catalog,
+                catalogItemIndexes, catalogProductIndexes,
+                new ConcurrentHashMap<String, VirtualItem>());
+    }
+
+    /**
+     * Creates a snapshot in which the given item replaces the old item with the same itemId,
+     * or is added to the end of the list of its type if there's no such item.
+     *
+     * @param item the item that replaces the old one if exists
+     * @return the new snapshot
+     * @see #withItems(Collection)
+     */
+    CatalogSnapshot withItem(VirtualItem item) {
+        return withItems(Collections.singletonList(item));
+    }
+
+    /**
+     * Creates a snapshot in which each of the given items replaces the old item with the same
+     * itemId, or is added to the end of the list of its type if there's no such item. The new
+     * snapshot shares the hashes of this one and only records the changes to them, so replacing
+     * an item doesn't copy the whole catalog (see {@link LayeredMap}). The lists of items by type
+     * and the secondary indexes hold itemIds, so they're copied only if an item is added or its
+     * type, class, category or purchase target changed.
+     *
+     * If this snapshot is lazy, the new one is lazy too, unless one of the items is an
+     * <code>UpgradeVG</code> or isn't in the catalog.
+     *
+     * @param items the items that replace the old ones if exist
+     * @return the new snapshot
+     */
+    CatalogSnapshot withItems(Collection<? extends VirtualItem> items) {
+        if (items.isEmpty()) {
+            return this;
+        }
+        if (isLazy()) {
+            return withCatalogItems(items);
+        }
+
+        LayeredMap<String, VirtualItem> virtualItems = LayeredMap.copyOf(mVirtualItems);
+        LayeredMap<String, PurchasableVirtualItem> purchasableItems =
+                LayeredMap.copyOf(mPurchasableItems);
+        LayeredMap<String, Integer> itemPositions = LayeredMap.copyOf(mItemPositions);
+        HashMap<String, List<UpgradeVG>> goodsUpgrades = null;
+        HashMap<String, UpgradeChain> upgradeChains = null;
+        ListUpdate currencyIds = new ListUpdate(mCurrencyIds);
+        ListUpdate currencyPackIds = new ListUpdate(mCurrencyPackIds);
+        ListUpdate goodIds = new ListUpdate(mGoodIds);
+        ListUpdate nonConsumableIds = new ListUpdate(mNonConsumableIds);
+
+        IndexUpdate<Class<? extends VirtualGood>> goodsByClass =
+                new IndexUpdate<Class<? extends VirtualGood>>(mGoodsByClass);
+        IndexUpdate<String> goodsByCategory = new IndexUpdate<String>(mGoodsByCategory);
+        IndexUpdate<String> itemsByTarget = new IndexUpdate<String>(mItemsByPurchaseTarget);
+        Comparator<String> order = positionOrder(virtualItems, itemPositions);
+
+        for (VirtualItem item : items) {
+            String itemId = item.getItemId();
+            VirtualItem old = virtualItems.put(itemId, item);
+
+            String oldProductId = old != null ? productIdOf(old) : null;
+            if (oldProductId != null && purchasableItems.get(oldProductId) == old) {
+                purchasableItems.remove(oldProductId);
+            }
+            String productId = productIdOf(item);
+            if (productId != null) {
+                purchasableItems.put(productId, (PurchasableVirtualItem) item);
+            }
+
+            if (old instanceof UpgradeVG || item instanceof UpgradeVG) {
+                if (goodsUpgrades == null) {
+                    goodsUpgrades = new HashMap<String, List<UpgradeVG>>(mGoodsUpgrades);
+                    upgradeChains = new HashMap<String, UpgradeChain>(mUpgradeChains);
+                }
+                replaceUpgrade(goodsUpgrades, upgradeChains, old, item);
+            }
+
+            // an item that keeps its type keeps its place in the list of that type
+            ListUpdate oldList = listOf(old, currencyIds, currencyPackIds, goodIds,
+                    nonConsumableIds);
+            ListUpdate list = listOf(item, currencyIds, currencyPackIds, goodIds,
+                    nonConsumableIds);
+            if (list != oldList) {
+                if (oldList != null) {
+                    oldList.remove(itemId, itemPositions);
+                }
+                if (list != null) {
+                    list.add(itemId, itemPositions);
+                }
+            }
+
+            reindex(old, item, virtualItems, goodsByClass, goodsByCategory, itemsByTarget, order);
+        }
+
+        return new CatalogSnapshot(currencyIds.build(), currencyPackIds.build(), goodIds.build(),
+                mCategories, nonConsumableIds.build(), virtualItems.compact(),
+                purchasableItems.compact(), mGoodsCategories,
+                goodsUpgrades != null ? goodsUpgrades : mGoodsUpgrades,
+                upgradeChains != null ? upgradeChains : mUpgradeChains, itemPositions.compact(),
+                goodsByClass.build(), goodsByCategory.build(), itemsByTarget.build(), null, null,
+                null, null);
+    }
+
+    /**
+     * Creates a snapshot in which all of the items are constructed, if this one is lazy. Items
+     * that were already handed out are kept, so there's never more than one instance of an item.
+     *
+     * @return a snapshot that isn't lazy
+     */
+    CatalogSnapshot materialize() {
+        if (!isLazy()) {
+            return this;
+        }
+
+        List<VirtualCurrency> currencies = new ArrayList<VirtualCurrency>();
+        List<VirtualCurrencyPack> currencyPacks = new ArrayList<VirtualCurrencyPack>();
+        List<VirtualGood> goods = new ArrayList<VirtualGood>();
+        List<NonConsumableItem> nonConsumables = new ArrayList<NonConsumableItem>();
+        for (int i = 0; i < mCatalog.getItemCount(); i++) {
+            VirtualItem item = getVirtualItem(mCatalog.getItemId(i));
+            if (item instanceof VirtualCurrency) {
+                currencies.add((VirtualCurrency) item);
+            } else if (item instanceof VirtualCurrencyPack) {
+                currencyPacks.add((VirtualCurrencyPack) item);
+            } else if (item instanceof VirtualGood) {
+                goods.add((VirtualGood) item);
+            } else if (item instanceof NonConsumableItem) {
+                nonConsumables.add((NonConsumableItem) item);
+            }
+        }
+
+        return of(currencies, currencyPacks, goods, mCategories, nonConsumables);
+    }
+
+    /**
+     * Checks if this snapshot constructs its items from a catalog on demand.
+     *
+     * @return true if the snapshot is lazy, false if all of its items are constructed
+     */
+    boolean isLazy() {
+        return mCatalog != null;
+    }
+
+    /**
+     * Retrieves the catalog that the items of a lazy snapshot are constructed from.
+     *
+     * @return the catalog, or null if the snapshot isn't lazy
+     */
+    CatalogReader getCatalog() {
+        return mCatalog;
+    }
+
+
+    /** Setters and Getters **/
+
+    /**
+     * Retrieves the item with the given <code>itemId</code>, constructing it from the catalog if
+     * the snapshot is lazy and it wasn't constructed yet.
+     *
+     * @param itemId id of the item
+     * @return the item, or null if there's no such item
+     */
+    VirtualItem getVirtualItem(String itemId) {
+        VirtualItem item = mVirtualItems.get(itemId);
+        if (item == null && mCatalog != null) {
+            Integer index = mCatalogItemIndexes.get(itemId);
+            if (index != null) {
+                item = materializeItem(index);
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Retrieves the purchasable item with the given <code>productId</code>, constructing it from
+     * the catalog if the snapshot is lazy and it wasn't constructed yet.
+     *
+     * @param productId product id of the item
+     * @return the item, or null if there's no such item
+     */
+    PurchasableVirtualItem getPurchasableItem(String productId) {
+        PurchasableVirtualItem item = mPurchasableItems.get(productId);
+        if (item == null && mCatalog != null) {
+            Integer index = mCatalogProductIndexes.get(productId);
+            if (index != null) {
+                item = (PurchasableVirtualItem) getVirtualItem(mCatalog.getItemId(index));
+            }
+        }
+        return item;
+    }
+
+    VirtualCategory getCategory(String goodItemId) {
+        return mGoodsCategories.get(goodItemId);
+    }
+
+    List<UpgradeVG> getGoodUpgrades(String goodItemId) {
+        return mGoodsUpgrades.get(goodItemId);
+    }
+
+    UpgradeChain getUpgradeChain(String goodItemId) {
+        return mUpgradeChains.get(goodItemId);
+    }
+
+    /**
+     * Retrieves the product ids of all of the items that are purchased with the market, without
+     * constructing them if the snapshot is lazy.
+     *
+     * @return the product ids
+     */
+    Set<String> getProductIds() {
+        if (mCatalog == null) {
+            return mPurchasableItems.keySet();
+        }
+        Set<String> productIds = new LinkedHashSet<String>(mCatalogProductIndexes.keySet());
+        productIds.addAll(mPurchasableItems.keySet());
+        return productIds;
+    }
+
+    // the lists are null in a lazy snapshot, see materialize()
+
+    List<VirtualCurrency> getCurrencies() {
+        return mCurrencies;
+    }
+
+    List<VirtualCurrencyPack> getCurrencyPacks() {
+        return mCurrencyPacks;
+    }
+
+    List<VirtualGood> getGoods() {
+        return mGoods;
+    }
+
+    List<VirtualCategory> getCategories() {
+        return mCategories;
+    }
+
+    List<NonConsumableItem> getNonConsumables() {
+        return mNonConsumables;
+    }
+
+    // the secondary indexes aren't available in a lazy snapshot, see materialize()
+
+    /**
+     * Retrieves the goods of the given class, including its subclasses, in the order of
+     * {@link #getGoods()}.
+     *
+     * @param goodClass the class of the goods
+     * @return an unmodifiable list of the goods
+     */
+    <T extends VirtualGood> List<T> getGoods(Class<T> goodClass) {
+        return items(goodClass, mGoodsByClass.get(goodClass));
+    }
+
+    /**
+     * Retrieves the goods of the category with the given name.
+     *
+     * @param categoryName the name of the category
+     * @return an unmodifiable list of the goods, in the order of the category
+     */
+    List<VirtualGood> getCategoryGoods(String categoryName) {
+        return items(VirtualGood.class, mGoodsByCategory.get(categoryName));
+    }
+
+    /**
+     * Retrieves the items that are purchased with the item with the given
+     * <code>targetItemId</code> (usually a virtual currency).
+     *
+     * @param targetItemId id of the item that's paid
+     * @return an unmodifiable list of the items
+     */
+    List<PurchasableVirtualItem> getItemsPurchasedWith(String targetItemId) {
+        return items(PurchasableVirtualItem.class, mItemsByPurchaseTarget.get(targetItemId));
+    }
+
+
+    /** Private functions **/
+
+    private CatalogSnapshot(List<String> currencyIds,
+                            List<String> currencyPackIds,
+                            List<String> goodIds,
+                            List<VirtualCategory> categories,
+                            List<String> nonConsumableIds,
+                            Map<String, VirtualItem> virtualItems,
+                            Map<String, PurchasableVirtualItem> purchasableItems,
+                            Map<String, VirtualCategory> goodsCategories,
+                            Map<String, List<UpgradeVG>> goodsUpgrades,
+                            Map<String, UpgradeChain> upgradeChains,
+                            Map<String, Integer> itemPositions,
+                            Map<Class<? extends VirtualGood>, List<String>> goodsByClass,
+                            Map<String, List<String>> goodsByCategory,
+                            Map<String, List<String>> itemsByPurchaseTarget,
+                            CatalogReader catalog,
+                            Map<String, Integer> catalogItemIndexes,
+                            Map<String, Integer> catalogProductIndexes,
+                            ConcurrentHashMap<String, VirtualItem> materialized) {
+        mCurrencyIds = currencyIds;
+        mCurrencyPackIds = currencyPackIds;
+        mGoodIds = goodIds;
+        mNonConsumableIds = nonConsumableIds;
+        mCurrencies = view(VirtualCurrency.class, currencyIds, virtualItems);
+        mCurrencyPacks = view(VirtualCurrencyPack.class, currencyPackIds, virtualItems);
+        mGoods = view(VirtualGood.class, goodIds, virtualItems);
+        mCategories = categories;
+        mNonConsumables = view(NonConsumableItem.class, nonConsumableIds, virtualItems);
+        mVirtualItems = virtualItems;
+        mPurchasableItems = purchasableItems;
+        mGoodsCategories = goodsCategories;
+        mGoodsUpgrades = goodsUpgrades;
+        mUpgradeChains = upgradeChains;
+        mItemPositions = itemPositions;
+        mGoodsByClass = goodsByClass;
+        mGoodsByCategory = goodsByCategory;
+        mItemsByPurchaseTarget = itemsByPurchaseTarget;
+        mCatalog = catalog;
+        mCatalogItemIndexes = catalogItemIndexes;
+        mCatalogProductIndexes = catalogProductIndexes;
+        mMaterialized = materialized;
+    }
+
+    /**
+     * Replaces items of a lazy snapshot, see {@link #withItems(Collection)}.
+     */
+    private CatalogSnapshot withCatalogItems(Collection<? extends VirtualItem> items) {
+        for (VirtualItem item : items) {
+            // upgrades are always constructed, so they're replaced the regular way
+            if (!mCatalogItemIndexes.containsKey(item.getItemId())
+                    || item instanceof UpgradeVG) {
+                return materialize().withItems(items);
+            }
+        }
+
+        LayeredMap<String, VirtualItem> virtualItems = LayeredMap.copyOf(mVirtualItems);
+        LayeredMap<String, PurchasableVirtualItem> purchasableItems =
+                LayeredMap.copyOf(mPurchasableItems);
+        LayeredMap<String, Integer> catalogProductIndexes =
+                LayeredMap.copyOf(mCatalogProductIndexes);
+        for (VirtualItem item : items) {
+            String itemId = item.getItemId();
+            VirtualItem old = virtualItems.get(itemId);
+            if (old == null) {
+                old = mMaterialized.get(itemId);
+            }
+            String oldProductId = old != null
+                    ? productIdOf(old) : mCatalog.getProductId(mCatalogItemIndexes.get(itemId));
+            if (oldProductId != null) {
+                purchasableItems.remove(oldProductId);
+                catalogProductIndexes.remove(oldProductId);
+            }
+            index(item, virtualItems, purchasableItems, null);
+        }
+
+        return new CatalogSnapshot(null, null, null, mCategories, null, virtualItems.compact(),
+                purchasableItems.compact(), mGoodsCategories, mGoodsUpgrades, mUpgradeChains, null,
+                null, null, null, mCatalog, mCatalogItemIndexes, catalogProductIndexes.compact(),
+                mMaterialized);
+    }
+
+    /**
+     * Creates a read-only view of the items with the given ids.
+     */
+    private <T extends VirtualItem> List<T> items(Class<T> type, List<String> itemIds) {
+        return itemIds != null
+                ? new ItemList<T>(type, itemIds, mVirtualItems) : Collections.<T>emptyList();
+    }
+
+    /**
+     * Constructs the item at the given position in the catalog, unless it was constructed
+     * already.
+     */
+    private VirtualItem materializeItem(int index) {
+        String itemId = mCatalog.getItemId(index);
+        VirtualItem item = mMaterialized.get(itemId);
+        if (item != null) {
+            return item;
+        }
+
+        try {
+            item = mCatalog.readItem(index);
+        } catch (IOException e) {
+            StoreUtils.LogError(TAG, "Couldn't decode " + itemId + " from the metadata catalog: "
+                    + e.getMessage());
+            return null;
+        }
+        VirtualItem other = mMaterialized.putIfAbsent(itemId, item);
+        return other != null ? other : item;
+    }
+
+    /**
+     * Adds the items of the given list to the given hashes, and records their positions.
+     */
+    private static void indexAll(List<? extends VirtualItem> items,
+                                 Map<String, VirtualItem> virtualItems,
+                                 Map<String, PurchasableVirtualItem> purchasableItems,
+                                 Map<String, List<UpgradeVG>> goodsUpgrades,
+                                 Map<String, Integer> itemPositions) {
+        for (int i = 0; i < items.size(); i++) {
+            VirtualItem item = items.get(i);
+            index(item, virtualItems, purchasableItems, goodsUpgrades);
+            itemPositions.put(item.getItemId(), i);
+        }
+    }
+
+    /**
+     * Adds the given item to the given hashes. <code>goodsUpgrades</code> may be null if the item
+     * isn't an <code>UpgradeVG</code>.
+     */
+    private static void index(VirtualItem item, Map<String, VirtualItem> virtualItems,
+                              Map<String, PurchasableVirtualItem> purchasableItems,
+                              Map<String, List<UpgradeVG>> goodsUpgrades) {
+        virtualItems.put(item.getItemId(), item);
+
+        String productId = productIdOf(item);
+        if (productId != null) {
+            purchasableItems.put(productId, (PurchasableVirtualItem) item);
+        }
+
+        if (item instanceof UpgradeVG) {
+            UpgradeVG upgradeVG = (UpgradeVG) item;
+            List<UpgradeVG> upgrades = goodsUpgrades.get(upgradeVG.getGoodItemId());
+            if (upgrades == null) {
+                upgrades = new ArrayList<UpgradeVG>();
+                goodsUpgrades.put(upgradeVG.getGoodItemId(), upgrades);
+            }
+            upgrades.add(upgradeVG);
+        }
+    }
+
+    /**
+     * Retrieves the product id of the given item.
+     *
+     * @return the product id, or null if the item isn't purchased with the market
+     */
+    private static String productIdOf(VirtualItem item) {
+        if (item instanceof PurchasableVirtualItem) {
+            PurchaseType purchaseType = ((PurchasableVirtualItem) item).getPurchaseType();
+            if (purchaseType instanceof PurchaseWithMarket) {
+                return ((PurchaseWithMarket) purchaseType).getMarketItem().getProductId();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Retrieves the update of the list of the given item's type.
+     *
+     * @return the update, or null if the item is null or isn't listed by type
+     */
+    private static ListUpdate listOf(VirtualItem item, ListUpdate currencyIds,
+                                     ListUpdate currencyPackIds, ListUpdate goodIds,
+                                     ListUpdate nonConsumableIds) {
+        if (item instanceof VirtualCurrency) {
+            return currencyIds;
+        } else if (item instanceof VirtualCurrencyPack) {
+            return currencyPackIds;
+        } else if (item instanceof VirtualGood) {
+            return goodIds;
+        } else if (item instanceof NonConsumableItem) {
+            return nonConsumableIds;
+        }
+        return null;
+    }
+
+    /**
+     * Updates the secondary indexes after the <code>old</code> item (null if there isn't one)
+     * was replaced with the given item. The indexes hold itemIds, so they change only if the
+     * item's class, category membership or purchase target changed.
+     */
+    private void reindex(VirtualItem old, VirtualItem item, Map<String, VirtualItem> virtualItems,
+                         IndexUpdate<Class<? extends VirtualGood>> goodsByClass,
+                         IndexUpdate<String> goodsByCategory,
+                         IndexUpdate<String> itemsByTarget,
+                         Comparator<String> order) {
+        String itemId = item.getItemId();
+
+        Class<? extends VirtualGood> oldClass =
+                old instanceof VirtualGood ? ((VirtualGood) old).getClass() : null;
+        Class<? extends VirtualGood> goodClass =
+                item instanceof VirtualGood ? ((VirtualGood) item).getClass() : null;
+        if (oldClass != goodClass) {
+            if (oldClass != null) {
+                for (Class<? extends VirtualGood> clazz : hierarchyOf(oldClass)) {
+                    goodsByClass.edit(clazz).remove(itemId);
+                }
+            }
+            if (goodClass != null) {
+                for (Class<? extends VirtualGood> clazz : hierarchyOf(goodClass)) {
+                    insert(goodsByClass.edit(clazz), itemId, order);
+                }
+            }
+        }
+
+        // a good that wasn't in the snapshot joins its category
+        VirtualCategory category = mGoodsCategories.get(itemId);
+        if (category != null && (old instanceof VirtualGood) != (item instanceof VirtualGood)) {
+            List<String> goodItemIds = goodsByCategory.edit(category.getName());
+            goodItemIds.clear();
+            for (String goodItemId : category.getGoodsItemIds()) {
+                if (virtualItems.get(goodItemId) instanceof VirtualGood) {
+                    goodItemIds.add(goodItemId);
+                }
+            }
+        }
+
+        String oldTargetItemId = purchaseTargetOf(old);
+        String targetItemId = purchaseTargetOf(item);
+        if (oldTargetItemId != null ? !oldTargetItemId.equals(targetItemId)
+                : targetItemId != null) {
+            if (oldTargetItemId != null) {
+                itemsByTarget.edit(oldTargetItemId).remove(itemId);
+            }
+            if (targetItemId != null) {
+                insert(itemsByTarget.edit(targetItemId), itemId, order);
+            }
+        }
+    }
+
+    /**
+     * Orders itemIds the way the secondary indexes list them: currency packs before goods, and
+     * each by its position in the list of its type.
+     */
+    private static Comparator<String> positionOrder(final Map<String, VirtualItem> virtualItems,
+                                                    final Map<String, Integer> itemPositions) {
+        return new Comparator<String>() {
+            @Override
+            public int compare(String itemId1, String itemId2) {
+                int rank1 = virtualItems.get(itemId1) instanceof VirtualCurrencyPack ? 0 : 1;
+                int rank2 = virtualItems.get(itemId2) instanceof VirtualCurrencyPack ? 0 : 1;
+                if (rank1 != rank2) {
+                    return rank1 - rank2;
+                }
+                return itemPositions.get(itemId1) - itemPositions.get(itemId2);
+            }
+        };
+    }
+
+    /**
+     * Inserts the given itemId into the given ordered list of itemIds, unless it's there already.
+     */
+    private static void insert(List<String> itemIds, String itemId, Comparator<String> order) {
+        int position = Collections.binarySearch(itemIds, itemId, order);
+        if (position < 0) {
+            itemIds.add(-position - 1, itemId);
+        }
+    }
+
+    /**
+     * Retrieves the itemId of the item that the given item is purchased with.
+     *
+     * @return the itemId, or null if the item isn't a currency pack or a good that's purchased
+     * with another item
+     */
+    private static String purchaseTargetOf(VirtualItem item) {
+        if (item instanceof VirtualCurrencyPack || item instanceof VirtualGood) {
+            PurchaseType purchaseType = ((PurchasableVirtualItem) item).getPurchaseType();
+            if (purchaseType instanceof PurchaseWithVirtualItem) {
+                return ((PurchaseWithVirtualItem) purchaseType).getTargetItemId();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Updates the given copies of the hashes of good-upgrades after the <code>old</code> item
+     * was replaced with the <code>replacement</code>. Either of them may or may not be an
+     * <code>UpgradeVG</code>.
+     */
+    private static void replaceUpgrade(Map<String, List<UpgradeVG>> goodsUpgrades,
+                                       Map<String, UpgradeChain> upgradeChains,
+                                       VirtualItem old, VirtualItem replacement) {
+        String oldGoodItemId = null;
+        int position = -1;
+        if (old instanceof UpgradeVG) {
+            oldGoodItemId = ((UpgradeVG) old).getGoodItemId();
+            List<UpgradeVG> oldUpgrades = goodsUpgrades.get(oldGoodItemId);
+            position = oldUpgrades != null ? oldUpgrades.indexOf(old) : -1;
+        }
+
+        if (replacement instanceof UpgradeVG) {
+            UpgradeVG upgradeVG = (UpgradeVG) replacement;
+            String goodItemId = upgradeVG.getGoodItemId();
+            List<UpgradeVG> upgrades = goodsUpgrades.get(goodItemId);
+            upgrades = upgrades != null
+                    ? new ArrayList<UpgradeVG>(upgrades) : new ArrayList<UpgradeVG>();
+            if (goodItemId.equals(oldGoodItemId) && position >= 0) {
+                upgrades.set(position, upgradeVG);
+                position = -1;
+            } else {
+                upgrades.add(upgradeVG);
+            }
+            goodsUpgrades.put(goodItemId, Collections.unmodifiableList(upgrades));
+            upgradeChains.put(goodItemId, new UpgradeChain(goodItemId, upgrades));
+        }
+
+        if (position >= 0) {
+            List<UpgradeVG> oldUpgrades =
+                    new ArrayList<UpgradeVG>(goodsUpgrades.get(oldGoodItemId));
+            oldUpgrades.remove(position);
+            if (oldUpgrades.isEmpty()) {
+                goodsUpgrades.remove(oldGoodItemId);
+                upgradeChains.remove(oldGoodItemId);
+            } else {
+                goodsUpgrades.put(oldGoodItemId, Collections.unmodifiableList(oldUpgrades));
+                upgradeChains.put(oldGoodItemId, new UpgradeChain(oldGoodItemId, oldUpgrades));
+            }
+        }
+    }
+
+    /**
+     * Maps every good to the category it belongs to.
+     */
+    private static HashMap<String, VirtualCategory> indexCategories(
+            List<VirtualCategory> categories) {
+        HashMap<String, VirtualCategory> goodsCategories = new HashMap<String, VirtualCategory>();
+        for (VirtualCategory category : categories) {
+            for (String goodItemId : category.getGoodsItemIds()) {
+                goodsCategories.put(goodItemId, category);
+            }
+        }
+        return goodsCategories;
+    }
+
+    /**
+     * Orders the upgrades of every good by level. See {@link UpgradeChain}.
+     */
+    private static HashMap<String, UpgradeChain> indexUpgradeChains(
+            Map<String, List<UpgradeVG>> goodsUpgrades) {
+        HashMap<String, UpgradeChain> upgradeChains = new HashMap<String, UpgradeChain>();
+        for (Map.Entry<String, List<UpgradeVG>> entry : goodsUpgrades.entrySet()) {
+            upgradeChains.put(entry.getKey(), new UpgradeChain(entry.getKey(), entry.getValue()));
+        }
+        return upgradeChains;
+    }
+
+    /**
+     * Groups the itemIds of the given goods by their class and by each of its superclasses up to
+     * <code>VirtualGood</code>, so the goods of a class and its subclasses are looked up at once.
+     */
+    private static Map<Class<? extends VirtualGood>, List<String>> indexGoodsByClass(
+            List<VirtualGood> goods) {
+        HashMap<Class<? extends VirtualGood>, List<String>> goodsByClass =
+                new HashMap<Class<? extends VirtualGood>, List<String>>();
+        for (VirtualGood good : goods) {
+            for (Class<? extends VirtualGood> clazz : hierarchyOf(good.getClass())) {
+                List<String> goodItemIds = goodsByClass.get(clazz);
+                if (goodItemIds == null) {
+                    goodItemIds = new ArrayList<String>();
+                    goodsByClass.put(clazz, goodItemIds);
+                }
+                goodItemIds.add(good.getItemId());
+            }
+        }
+        return freezeValues(goodsByClass);
+    }
+
+    /**
+     * Lists the given class and its superclasses up to <code>VirtualGood</code>.
+     */
+    private static List<Class<? extends VirtualGood>> hierarchyOf(
+            Class<? extends VirtualGood> goodClass) {
+        List<Class<? extends VirtualGood>> hierarchy =
+                new ArrayList<Class<? extends VirtualGood>>();
+        Class<?> clazz = goodClass;
+        while (VirtualGood.class.isAssignableFrom(clazz)) {
+            hierarchy.add(clazz.asSubclass(VirtualGood.class));
+            clazz = clazz.getSuperclass();
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Maps the name of every category to the itemIds of its goods.
+     */
+    private static Map<String, List<String>> indexGoodsByCategory(
+            List<VirtualCategory> categories, Map<String, VirtualItem> virtualItems) {
+        HashMap<String, List<String>> goodsByCategory = new HashMap<String, List<String>>();
+        for (VirtualCategory category : categories) {
+            List<String> goodItemIds = new ArrayList<String>();
+            for (String goodItemId : category.getGoodsItemIds()) {
+                if (virtualItems.get(goodItemId) instanceof VirtualGood) {
+                    goodItemIds.add(goodItemId);
+                }
+            }
+            goodsByCategory.put(category.getName(), goodItemIds);
+        }
+        return freezeValues(goodsByCategory);
+    }
+
+    /**
+     * Groups the itemIds of the items that are purchased with other items by the item they're
+     * purchased with, currency packs first.
+     */
+    private static Map<String, List<String>> indexItemsByPurchaseTarget(
+            List<VirtualCurrencyPack> currencyPacks, List<VirtualGood> goods) {
+        HashMap<String, List<String>> itemsByTarget = new HashMap<String, List<String>>();
+        indexByPurchaseTarget(currencyPacks, itemsByTarget);
+        indexByPurchaseTarget(goods, itemsByTarget);
+        return freezeValues(itemsByTarget);
+    }
+
+    private static void indexByPurchaseTarget(List<? extends PurchasableVirtualItem> items,
+                                              Map<String, List<String>> itemsByTarget) {
+        for (PurchasableVirtualItem item : items) {
+            String targetItemId = purchaseTargetOf(item);
+            if (targetItemId == null) {
+                continue;
+            }
+            List<String> itemIds = itemsByTarget.get(targetItemId);
+            if (itemIds == null) {
+                itemIds = new ArrayList<String>();
+                itemsByTarget.put(targetItemId, itemIds);
+            }
+            itemIds.add(item.getItemId());
+        }
+    }
+
+    private static <K, V> Map<K, List<V>> freezeValues(HashMap<K, List<V>> map) {
+        for (Map.Entry<K, List<V>> entry : map.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        return map;
+    }
+
+    private static <T> List<T> freeze(List<T> list) {
+        return Collections.unmodifiableList(new ArrayList<T>(list));
+    }
+
+    private static List<String> idsOf(List<? extends VirtualItem> items) {
+        ArrayList<String> itemIds = new ArrayList<String>(items.size());
+        for (VirtualItem item : items) {
+            itemIds.add(item.getItemId());
+        }
+        return Collections.unmodifiableList(itemIds);
+    }
+
+    /**
+     * Creates a read-only view of the items with the given ids, or returns null if there are no
+     * ids (lazy snapshot).
+     */
+    private static <T extends VirtualItem> List<T> view(Class<T> type, List<String> itemIds,
+                                                        Map<String, VirtualItem> virtualItems) {
+        return itemIds != null ? new ItemList<T>(type, itemIds, virtualItems) : null;
+    }
+
+
+
+    /** Private Members **/
+
+    private static final String TAG = "SOOMLA CatalogSnapshot"; //used for Log messages
+
+    // the itemIds of the items of every type, in order, and views of the items in
+    // mVirtualItems. null in a lazy snapshot.
+    private final List<String> mCurrencyIds;
+    private final List<String> mCurrencyPackIds;
+    private final List<String> mGoodIds;
+    private final List<String> mNonConsumableIds;
+    private final List<VirtualCurrency> mCurrencies;
+    private final List<VirtualCurrencyPack> mCurrencyPacks;
+    private final List<VirtualGood> mGoods;
+    private final List<VirtualCategory> mCategories;
+    private final List<NonConsumableItem> mNonConsumables;
+
+    // convenient hashes of virtual items, purchasable items, goods-categories and good-upgrades.
+    // in a lazy snapshot they hold only the upgrades and the items that were replaced.
+    private final Map<String, VirtualItem> mVirtualItems;
+    private final Map<String, PurchasableVirtualItem> mPurchasableItems;
+    private final Map<String, VirtualCategory> mGoodsCategories;
+    private final Map<String, List<UpgradeVG>> mGoodsUpgrades;
+
+    // the upgrades of every good, ordered by level
+    private final Map<String, UpgradeChain> mUpgradeChains;
+
+    // position of every item in the list of its type, null in a lazy snapshot
+    private final Map<String, Integer> mItemPositions;
+
+    // the catalog that items are constructed from on demand (lazy snapshot)
+    private final CatalogReader mCatalog;
+
+    // positions in mCatalog by itemId and by productId (lazy snapshot)
+    private final Map<String, Integer> mCatalogItemIndexes;
+    private final Map<String, Integer> mCatalogProductIndexes;
+
+    // the items that were constructed from mCatalog, shared with the snapshots derived from this
+    // one (lazy snapshot)
+    private final ConcurrentHashMap<String, VirtualItem> mMaterialized;
+
+    // secondary indexes: itemIds of goods by class (a good is listed under its class and each of
+    // its superclasses), of goods by category name, and of items purchased with another item by
+    // the itemId of that item. they're built once and updated only where a replaced item's
+    // membership changed. null in a lazy snapshot.
+    private final Map<Class<? extends VirtualGood>, List<String>> mGoodsByClass;
+    private final Map<String, List<String>> mGoodsByCategory;
+    private final Map<String, List<String>> mItemsByPurchaseTarget;
+
+    /**
+     * A copy-on-write update of the itemIds of one of the lists of items by type. It's copied at
+     * most once, and only if an item is added to the list or moved to another one.
+     */
+    private static class ListUpdate {
+        ListUpdate(List<String> itemIds) {
+            mItemIds = itemIds;
+        }
+
+        void add(String itemId, Map<String, Integer> itemPositions) {
+            List<String> itemIds = edit();
+            itemPositions.put(itemId, itemIds.size());
+            itemIds.add(itemId);
+        }
+
+        void remove(String itemId, Map<String, Integer> itemPositions) {
+            List<String> itemIds = edit();
+            int position = itemPositions.remove(itemId);
+            itemIds.remove(position);
+            for (int i = position; i < itemIds.size(); i++) {
+                itemPositions.put(itemIds.get(i), i);
+            }
+        }
+
+        List<String> build() {
+            return mEdited != null ? Collections.unmodifiableList(mEdited) : mItemIds;
+        }
+
+        private List<String> edit() {
+            if (mEdited == null) {
+                mEdited = new ArrayList<String>(mItemIds);
+            }
+            return mEdited;
+        }
+
+        private final List<String> mItemIds;
+        private ArrayList<String> mEdited = null;
+    }
+
+    /**
+     * A hash made of a base hash that's never modified, and the changes to it. A snapshot that's
+     * derived from another one shares the base and copies only the changes. Once there are more
+     * changes than about the square root of the base's size, {@link #compact()} folds them into
+     * a new base, so a replaced item costs far less than a copy of the whole hash.
+     * Values are never null. Not modified after it's handed to a snapshot.
+     */
+    private static class LayeredMap<K, V> extends AbstractMap<K, V> {
+        static <K, V> LayeredMap<K, V> copyOf(Map<K, V> map) {
+            if (map instanceof LayeredMap) {
+                LayeredMap<K, V> layered = (LayeredMap<K, V>) map;
+                return new LayeredMap<K, V>(layered.mBase, new HashMap<K, V>(layered.mPuts),
+                        new HashSet<Object>(layered.mRemoved));
+            }
+            return new LayeredMap<K, V>(map, new HashMap<K, V>(), new HashSet<Object>());
+        }
+
+        private LayeredMap(Map<K, V> base, HashMap<K, V> puts, HashSet<Object> removed) {
+            mBase = base;
+            mPuts = puts;
+            mRemoved = removed;
+        }
+
+        @Override
+        public V get(Object key) {
+            V value = mPuts.get(key);
+            if (value != null || mRemoved.contains(key)) {
+                return value;
+            }
+            return mBase.get(key);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public V put(K key, V value) {
+            V old = get(key);
+            mRemoved.remove(key);
+            mPuts.put(key, value);
+            return old;
+        }
+
+        @Override
+        public V remove(Object key) {
+            V old = get(key);
+            mPuts.remove(key);
+            if (mBase.containsKey(key)) {
+                mRemoved.add(key);
+            }
+            return old;
+        }
+
+        /**
+         * Iterating is only needed for the rarely used sets of keys, it copies the whole hash.
+         */
+        @Override
+        public Set<Entry<K, V>> entrySet() {
+            return Collections.unmodifiableMap(flatten()).entrySet();
+        }
+
+        /**
+         * Folds the changes into a new base, if there are too many of them.
+         *
+         * @return this map, or an equal one without changes
+         */
+        LayeredMap<K, V> compact() {
+            int maxChanges = Math.max(MIN_CHANGES, (int) Math.sqrt(mBase.size()));
+            if (mPuts.size() + mRemoved.size() <= maxChanges) {
+                return this;
+            }
+            return new LayeredMap<K, V>(flatten(), new HashMap<K, V>(), new HashSet<Object>());
+        }
+
+        private HashMap<K, V> flatten() {
+            HashMap<K, V> map = new HashMap<K, V>(mBase);
+            map.keySet().removeAll(mRemoved);
+            map.putAll(mPuts);
+            return map;
+        }
+
+        private static final int MIN_CHANGES = 16;
+
+        private final Map<K, V> mBase;
+        private final HashMap<K, V> mPuts;
+        private final HashSet<Object> mRemoved;
+    }
+
+    /**
+     * A copy-on-write update of one of the secondary indexes: the index and each of its lists
+     * are copied at most once, and only if they change.
+     */
+    private static class IndexUpdate<K> {
+        IndexUpdate(Map<K, List<String>> index) {
+            mIndex = index;
+        }
+
+        List<String> edit(K key) {
+            if (mEdited == null) {
+                mEdited = new HashMap<K, List<String>>();
+            }
+            List<String> itemIds = mEdited.get(key);
+            if (itemIds == null) {
+                List<String> current = mIndex.get(key);
+                itemIds = current != null
+                        ? new ArrayList<String>(current) : new ArrayList<String>();
+                mEdited.put(key, itemIds);
+            }
+            return itemIds;
+        }
+
+        Map<K, List<String>> build() {
+            if (mEdited == null) {
+                return mIndex;
+            }
+            HashMap<K, List<String>> index = new HashMap<K, List<String>>(mIndex);
+            for (Map.Entry<K, List<String>> entry : mEdited.entrySet()) {
+                if (entry.getValue().isEmpty()) {
+                    index.remove(entry.getKey());
+                } else {
+                    index.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+                }
+            }
+            return index;
+        }
+
+        private final Map<K, List<String>> mIndex;
+        private HashMap<K, List<String>> mEdited = null;
+    }
+
+    /**
+     * A read-only list of the items with the given itemIds, looked up in a snapshot's hash of
+     * items, so an index stays valid when its items are replaced.
+     */
+    private static class ItemList<T extends VirtualItem> extends AbstractList<T>
+            implements RandomAccess {
+        ItemList(Class<T> type, List<String> itemIds, Map<String, VirtualItem> virtualItems) {
+            mType = type;
+            mItemIds = itemIds;
+            mVirtualItems = virtualItems;
+        }
+
+        @Override
+        public T get(int location) {
+            return mType.cast(mVirtualItems.get(mItemIds.get(location)));
+        }
+
+        @Override
+        public int size() {
+            return mItemIds.size();
+        }
+
+        private final Class<T> mType;
+        private final List<String> mItemIds;
+        private final Map<String, VirtualItem> mVirtualItems;
+    }
+}
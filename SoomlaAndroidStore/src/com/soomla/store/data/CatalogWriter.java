@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.store.data;
+
+import com.soomla.store.domain.MarketItem;
+import com.soomla.store.domain.NonConsumableItem;
+import com.soomla.store.domain.PurchasableVirtualItem;
+import com.soomla.store.domain.VirtualCategory;
+import com.soomla.store.domain.VirtualItem;
+import com.soomla.store.domain.virtualCurrencies.VirtualCurrency;
+import com.soomla.store.domain.virtualCurrencies.VirtualCurrencyPack;
+import com.soomla.store.domain.virtualGoods.EquippableVG;
+import com.soomla.store.domain.virtualGoods.LifetimeVG;
+import com.soomla.store.domain.virtualGoods.SingleUsePackVG;
+import com.soomla.store.domain.virtualGoods.SingleUseVG;
+import com.soomla.store.domain.virtualGoods.UpgradeVG;
+import com.soomla.store.domain.virtualGoods.VirtualGood;
+import com.soomla.store.purchaseTypes.PurchaseType;
+import com.soomla.store.purchaseTypes.PurchaseWithMarket;
+import com.soomla.store.purchaseTypes.PurchaseWithVirtualItem;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Encodes the store's metadata in SOOMLA's binary catalog format, which is read back by
+ * {@link CatalogReader}. It's a lot more compact than the JSON representation and much faster
+ * to load on startup.
+ *
+ * The format (all numbers are big-endian):
+ *  1. Header: the magic number and the format version (ints).
+ *  2. String table: a count, followed by every distinct string as a length-prefixed UTF-8 byte
+ *     array. Strings are interned - everything after the table refers to them by index (-1 for
+ *     null), so an itemId that's referenced by several items is stored once.
+ *  3. Item index: a count, followed by the kind, itemId, productId (-1 if the item isn't
+ *     purchased with the market) and a length-prefixed body of every <code>VirtualItem</code>.
+ *  4. Categories: a count, followed by the name and the itemIds of the goods of every
+ *     <code>VirtualCategory</code>.
+ *
+ * Version 2 adds the details that were fetched from the market (see
+ * <code>StoreController.refreshMarketItemsDetails</code>) to the body of every item that's
+ * purchased with the market. Version 1 catalogs are still read.
+ */
+public final class CatalogWriter {
+
+    /**
+     * Encodes the given metadata.
+     *
+     * @param currencies the virtual currencies
+     * @param currencyPacks the virtual currency packs
+     * @param goods the virtual goods
+     * @param categories the virtual categories
+     * @param nonConsumables the non-consumable items
+     * @return the encoded metadata
+     * @throws IOException if one of the items can't be encoded (for example if it has no purchase
+     *     type)
+     */
+    public static byte[] write(List<VirtualCurrency> currencies,
+                               List<VirtualCurrencyPack> currencyPacks,
+                               List<VirtualGood> goods,
+                               List<VirtualCategory> categories,
+                               List<NonConsumableItem> nonConsumables) throws IOException {
+        List<VirtualItem> items = new ArrayList<VirtualItem>();
+        items.addAll(currencies);
+        items.addAll(currencyPacks);
+        items.addAll(goods);
+        items.addAll(nonConsumables);
+
+        return write(items, categories);
+    }
+
+    /**
+     * Encodes a catalog that holds only the given item. It can be read back with
+     * <code>new CatalogReader(data).readItem(0)</code>.
+     *
+     * @param item the item to encode
+     * @return the encoded item
+     * @throws IOException if the item can't be encoded
+     */
+    public static byte[] writeItem(VirtualItem item) throws IOException {
+        return write(Collections.singletonList(item), Collections.<VirtualCategory>emptyList());
+    }
+
+
+    /** Private functions **/
+
+    private CatalogWriter() { }
+
+    /**
+     * Encodes the given items and categories.
+     */
+    private static byte[] write(List<VirtualItem> items, List<VirtualCategory> categories)
+            throws IOException {
+        CatalogWriter writer = new CatalogWriter();
+
+        // items and categories are written first, so that the string table is complete
+        ByteArrayOutputStream itemsBytes = new ByteArrayOutputStream();
+        DataOutputStream itemsOut = new DataOutputStream(itemsBytes);
+        itemsOut.writeInt(items.size());
+        for (VirtualItem item : items) {
+            writer.writeItem(itemsOut, item);
+        }
+        itemsOut.writeInt(categories.size());
+        for (VirtualCategory category : categories) {
+            itemsOut.writeInt(writer.ref(category.getName()));
+            List<String> goodsItemIds = category.getGoodsItemIds();
+            itemsOut.writeInt(goodsItemIds.size());
+            for (String goodItemId : goodsItemIds) {
+                itemsOut.writeInt(writer.ref(goodItemId));
+            }
+        }
+        itemsOut.flush();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(itemsBytes.size() * 2);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(CatalogReader.MAGIC);
+        out.writeInt(CatalogReader.VERSION);
+        out.writeInt(writer.mStrings.size());
+        for (String str : writer.mStrings) {
+            byte[] utf8 = str.getBytes(UTF8);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        }
+        itemsBytes.writeTo(out);
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes the index entry and the body of the given item.
+     */
+    private void writeItem(DataOutputStream out, VirtualItem item) throws IOException {
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream(64);
+        DataOutputStream body = new DataOutputStream(bodyBytes);
+
+        body.writeInt(ref(item.getName()));
+        body.writeInt(ref(item.getDescription()));
+
+        String productId = null;
+        if (item instanceof PurchasableVirtualItem) {
+            PurchaseType purchaseType = ((PurchasableVirtualItem) item).getPurchaseType();
+            if (purchaseType instanceof PurchaseWithMarket) {
+                MarketItem marketItem = ((PurchaseWithMarket) purchaseType).getMarketItem();
+                productId = marketItem.getProductId();
+                body.writeByte(CatalogReader.PURCHASE_MARKET);
+                body.writeInt(ref(productId));
+                body.writeByte(marketItem.getManaged().ordinal());
+                body.writeDouble(marketItem.getPrice());
+                body.writeDouble(marketItem.getMarketPrice());
+                body.writeInt(ref(marketItem.getMarketTitle()));
+                body.writeInt(ref(marketItem.getMarketDescription()));
+                body.writeInt(ref(marketItem.getMarketPriceWithCurrencySymbol()));
+                body.writeInt(ref(marketItem.getMarketCurrencyCode()));
+            } else if (purchaseType instanceof PurchaseWithVirtualItem) {
+                PurchaseWithVirtualItem pvi = (PurchaseWithVirtualItem) purchaseType;
+                body.writeByte(CatalogReader.PURCHASE_VI);
+                body.writeInt(ref(pvi.getTargetItemId()));
+                body.writeInt(pvi.getAmount());
+            } else {
+                throw new IOException("Can't encode the purchase type of " + item.getItemId());
+            }
+        }
+
+        byte kind;
+        if (item instanceof VirtualCurrency) {
+            kind = CatalogReader.KIND_CURRENCY;
+        } else if (item instanceof VirtualCurrencyPack) {
+            kind = CatalogReader.KIND_CURRENCY_PACK;
+            VirtualCurrencyPack pack = (VirtualCurrencyPack) item;
+            body.writeInt(pack.getCurrencyAmount());
+            body.writeInt(ref(pack.getCurrencyItemId()));
+        } else if (item instanceof SingleUseVG) {
+            kind = CatalogReader.KIND_SINGLE_USE;
+        } else if (item instanceof UpgradeVG) {
+            kind = CatalogReader.KIND_UPGRADE;
+            UpgradeVG upgrade = (UpgradeVG) item;
+            body.writeInt(ref(upgrade.getGoodItemId()));
+            body.writeInt(ref(upgrade.getPrevItemId()));
+            body.writeInt(ref(upgrade.getNextItemId()));
+        } else if (item instanceof EquippableVG) {
+            kind = CatalogReader.KIND_EQUIPPABLE;
+            body.writeByte(((EquippableVG) item).getEquippingModel().ordinal());
+        } else if (item instanceof LifetimeVG) {
+            kind = CatalogReader.KIND_LIFETIME;
+        } else if (item instanceof SingleUsePackVG) {
+            kind = CatalogReader.KIND_SINGLE_USE_PACK;
+            SingleUsePackVG pack = (SingleUsePackVG) item;
+            body.writeInt(ref(pack.getGoodItemId()));
+            body.writeInt(pack.getGoodAmount());
+        } else if (item instanceof NonConsumableItem) {
+            kind = CatalogReader.KIND_NON_CONSUMABLE;
+        } else {
+            throw new IOException("Can't encode " + item.getClass().getName());
+        }
+        body.flush();
+
+        out.writeByte(kind);
+        out.writeInt(ref(item.getItemId()));
+        out.writeInt(ref(productId));
+        out.writeInt(bodyBytes.size());
+        bodyBytes.writeTo(out);
+    }
+
+    /**
+     * Interns the given string in the string table.
+     *
+     * @return the index of the string in the table, or -1 if it's null
+     */
+    private int ref(String str) {
+        if (str == null) {
+            return -1;
+        }
+        Integer index = mStringIndexes.get(str);
+        if (index == null) {
+            index = mStrings.size();
+            mStrings.add(str);
+            mStringIndexes.put(str, index);
+        }
+        return index;
+    }
+
+
+    /** Private Members **/
+
+    private static final String UTF8 = "UTF-8";
+
+    private final List<String> mStrings = new ArrayList<String>();
+
+    private final HashMap<String, Integer> mStringIndexes = new HashMap<String, Integer>();
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.store.data;
+
+import com.soomla.store.domain.VirtualItem;
+import com.soomla.store.domain.virtualCurrencies.VirtualCurrency;
+import com.soomla.store.domain.virtualGoods.VirtualGood;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns every itemId a compact integer handle, so that per-item state can be kept in arrays
+ * indexed by the handle instead of in hashes keyed by the itemId.
+ *
+ * Handles are assigned from 0 up, in the order of the catalog, and are never reassigned: an item
+ * that's removed from the catalog keeps its handle, and gets the same one if it comes back. Only
+ * items in the catalog get handles, so an unknown itemId doesn't grow the tables.
+ */
+final class ItemHandles {
+
+    /** Storages of the items' balances **/
+
+    static final byte STORAGE_NONE = 0;
+    static final byte STORAGE_GOODS = 1;
+    static final byte STORAGE_CURRENCIES = 2;
+
+
+    /** Setters and Getters **/
+
+    /**
+     * Retrieves the handle of the item with the given <code>itemId</code>.
+     *
+     * @param itemId id of the item
+     * @return the handle of the item, or -1 if it was never assigned one
+     */
+    static int get(String itemId) {
+        Integer handle = mHandles.get(itemId);
+        return handle != null ? handle : -1;
+    }
+
+    /**
+     * Retrieves the itemId of the item with the given handle.
+     *
+     * @param handle the handle of the item
+     * @return the itemId, or null if no item has this handle
+     */
+    static String getItemId(int handle) {
+        String[] itemIds = mItemIds;
+        return handle >= 0 && handle < itemIds.length ? itemIds[handle] : null;
+    }
+
+    /**
+     * Retrieves the storage of the balance of the item with the given handle.
+     *
+     * @param handle the handle of the item
+     * @return one of the <code>STORAGE_</code> constants
+     */
+    static byte getStorage(int handle) {
+        byte[] storages = mStorages;
+        return handle >= 0 && handle < storages.length ? storages[handle] : STORAGE_NONE;
+    }
+
+    /**
+     * Assigns handles to all of the items in the given snapshot, and updates the storages of the
+     * items that have handles already.
+     *
+     * @param snapshot the snapshot of the catalog
+     */
+    static synchronized void register(CatalogSnapshot snapshot) {
+        if (snapshot.isLazy()) {
+            CatalogReader catalog = snapshot.getCatalog();
+            for (int i = 0; i < catalog.getItemCount(); i++) {
+                register(catalog.getItemId(i), storageOf(catalog.getKind(i)));
+            }
+            return;
+        }
+
+        registerAll(snapshot.getCurrencies());
+        registerAll(snapshot.getCurrencyPacks());
+        registerAll(snapshot.getGoods());
+        registerAll(snapshot.getNonConsumables());
+    }
+
+    /**
+     * Assigns a handle to the given item if it doesn't have one, and updates its storage.
+     *
+     * @param item the item
+     * @return the handle of the item
+     */
+    static synchronized int register(VirtualItem item) {
+        byte storage = STORAGE_NONE;
+        if (item instanceof VirtualGood) {
+            storage = STORAGE_GOODS;
+        } else if (item instanceof VirtualCurrency) {
+            storage = STORAGE_CURRENCIES;
+        }
+        return register(item.getItemId(), storage);
+    }
+
+
+    /** Private functions **/
+
+    private static void registerAll(List<? extends VirtualItem> items) {
+        for (VirtualItem item : items) {
+            register(item);
+        }
+    }
+
+    private static int register(String itemId, byte storage) {
+        Integer handle = mHandles.get(itemId);
+        if (handle == null) {
+            return assign(itemId, storage);
+        }
+        mStorages[handle] = storage;
+        return handle;
+    }
+
+    private static int assign(String itemId, byte storage) {
+        int handle = mHandles.size();
+        if (handle == mItemIds.length) {
+            int capacity = Math.max(16, handle * 2);
+            // the storages are grown first, so a reader never finds an itemId without a storage
+            mStorages = Arrays.copyOf(mStorages, capacity);
+            mItemIds = Arrays.copyOf(mItemIds, capacity);
+        }
+        mStorages[handle] = storage;
+        mItemIds[handle] = itemId;
+        mHandles.put(itemId, handle);
+        return handle;
+    }
+
+    private static byte storageOf(byte kind) {
+        switch (kind) {
+            case CatalogReader.KIND_CURRENCY:
+                return STORAGE_CURRENCIES;
+            case CatalogReader.KIND_SINGLE_USE:
+            case CatalogReader.KIND_LIFETIME:
+            case CatalogReader.KIND_EQUIPPABLE:
+            case CatalogReader.KIND_SINGLE_USE_PACK:
+            case CatalogReader.KIND_UPGRADE:
+                return STORAGE_GOODS;
+            default:
+                return STORAGE_NONE;
+        }
+    }
+
+
+    /** Private Members **/
+
+    // read without locking. handles are only assigned while holding the lock on this class.
+    private static final ConcurrentHashMap<String, Integer> mHandles =
+            new ConcurrentHashMap<String, Integer>();
+
+    // indexed by handle. the arrays are only replaced, with the lock held, when they grow.
+    private static volatile String[] mItemIds = new String[0];
+    private static volatile byte[] mStorages = new byte[0];
+}
@@ -16,16 +16,21 @@
 
 package com.soomla.store.data;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import com.soomla.store.StoreConfig;
+import com.soomla.store.StoreUtils;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * The KeyValDatabase provides a basic key-value store above SQLite.
@@ -45,13 +50,74 @@ public class KeyValDatabase {
 
         mDatabaseHelper = new DatabaseHelper(context);
         mStoreDB = mDatabaseHelper.getWritableDatabase();
+
+        mUpsertStmt = mStoreDB.compileStatement("INSERT OR REPLACE INTO " + KEYVAL_TABLE_NAME
+                + " (" + KEYVAL_COLUMN_KEY + ", " + KEYVAL_COLUMN_VAL + ") VALUES (?, ?)");
+        mGetStmt = mStoreDB.compileStatement("SELECT " + KEYVAL_COLUMN_VAL + " FROM "
+                + KEYVAL_TABLE_NAME + " WHERE " + KEYVAL_COLUMN_KEY + " = ?");
+        mDeleteStmt = mStoreDB.compileStatement("DELETE FROM " + KEYVAL_TABLE_NAME + " WHERE "
+                + KEYVAL_COLUMN_KEY + " = ?");
     }
 
     /**
      * Closes the database.
      */
-    public synchronized void close() {
-        mDatabaseHelper.close();
+    public void close() {
+        mLock.lock();
+        try {
+            mUpsertStmt.close();
+            mGetStmt.close();
+            mDeleteStmt.close();
+            mDatabaseHelper.close();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Begins a transaction. All writes done by the calling thread until the matching
+     * <code>endTransaction</code> are committed together, in a single journaled commit.
+     * Transactions may be nested; the outermost one decides whether everything is committed.
+     *
+     * The database is locked for other threads until the transaction ends, so keep it short.
+     * Usage:
+     * <pre>
+     *   db.beginTransaction();
+     *   try {
+     *     ...
+     *     db.setTransactionSuccessful();
+     *   } finally {
+     *     db.endTransaction();
+     *   }
+     * </pre>
+     */
+    public void beginTransaction() {
+        mLock.lock();
+        try {
+            mStoreDB.beginTransaction();
+        } catch (RuntimeException e) {
+            mLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Marks the current transaction as successful. If this is not called before
+     * <code>endTransaction</code>, all the writes of the transaction are rolled back.
+     */
+    public void setTransactionSuccessful() {
+        mStoreDB.setTransactionSuccessful();
+    }
+
+    /**
+     * Ends the current transaction, committing or rolling it back.
+     */
+    public void endTransaction() {
+        try {
+            mStoreDB.endTransaction();
+        } finally {
+            mLock.unlock();
+        }
     }
 
     /**
@@ -65,19 +131,24 @@ public class KeyValDatabase {
 
     /**
      * Sets the given value to the given key.
+     * If the key already exists its value is replaced, otherwise a new key-val pair is inserted.
      *
      * @param key the key of the key-val pair
      * @param val the val of the key-val pair
      */
-    public synchronized void setKeyVal(String key, String val) {
-        ContentValues values = new ContentValues();
-        values.put(KEYVAL_COLUMN_VAL, val);
-
-        int affected = mStoreDB.update(KEYVAL_TABLE_NAME, values, KEYVAL_COLUMN_KEY + "='"
-                + key + "'", null);
-        if (affected == 0){
-            values.put(KEYVAL_COLUMN_KEY, key);
-            mStoreDB.replace(KEYVAL_TABLE_NAME, null, values);
+    public void setKeyVal(String key, String val) {
+        mLock.lock();
+        try {
+            mUpsertStmt.bindString(1, key);
+            if (val == null) {
+                mUpsertStmt.bindNull(2);
+            } else {
+                mUpsertStmt.bindString(2, val);
+            }
+            mUpsertStmt.executeInsert();
+            mUpsertStmt.clearBindings();
+        } finally {
+            mLock.unlock();
         }
     }
 
@@ -87,23 +158,18 @@ public class KeyValDatabase {
      * @param key the key of the key-val pair
      * @return a value for the given key
      */
-    public synchronized String getKeyVal(String key) {
-        Cursor cursor = mStoreDB.query(KEYVAL_TABLE_NAME, KEYVAL_COLUMNS, KEYVAL_COLUMN_KEY
-                + "='" + key + "'",
-                null, null, null, null);
- 
-        if (cursor != null && cursor.moveToNext()) {
-            int valColIdx = cursor.getColumnIndexOrThrow(KEYVAL_COLUMN_VAL);
-            String ret = cursor.getString(valColIdx);
-            cursor.close();
-            return ret;
-        }
-        
-        if(cursor != null) {
-        	cursor.close();
+    public String getKeyVal(String key) {
+        mLock.lock();
+        try {
+            mGetStmt.bindString(1, key);
+            return mGetStmt.simpleQueryForString();
+        } catch (SQLiteDoneException e) {
+            // no row for the given key
+            return null;
+        } finally {
+            mGetStmt.clearBindings();
+            mLock.unlock();
         }
-        
-        return null;
     }
 
     /**
@@ -111,28 +177,86 @@ public class KeyValDatabase {
      *
      * @param key the key of the key-val pair
      */
-    public synchronized void deleteKeyVal(String key) {
-        mStoreDB.delete(KEYVAL_TABLE_NAME, KEYVAL_COLUMN_KEY + "=?", new String[] { key });
+    public void deleteKeyVal(String key) {
+        mLock.lock();
+        try {
+            mDeleteStmt.bindString(1, key);
+            mDeleteStmt.executeUpdateDelete();
+            mDeleteStmt.clearBindings();
+        } finally {
+            mLock.unlock();
+        }
     }
 
-    public synchronized HashMap<String, String> getQueryVals(String query) {
-        query = query.replace('*', '%');
-        Cursor cursor = mStoreDB.query(KEYVAL_TABLE_NAME, KEYVAL_COLUMNS, KEYVAL_COLUMN_KEY
-                + " LIKE '" + query + "'",
-                null, null, null, null);
-
+    /**
+     * Retrieves the values of the given keys.
+     * The keys are looked up in chunks of a few hundred per query, since SQLite limits the number
+     * of parameters of a statement.
+     *
+     * @param keys the keys of the key-val pairs
+     * @return hashmap of key-val pairs. Keys that are not in the database are not included.
+     */
+    public HashMap<String, String> getKeyVals(List<String> keys) {
         HashMap<String, String> ret = new HashMap<String, String>();
-        while (cursor != null && cursor.moveToNext()) {
-            try {
-                int valColIdx = cursor.getColumnIndexOrThrow(KEYVAL_COLUMN_VAL);
-                int keyColIdx = cursor.getColumnIndexOrThrow(KEYVAL_COLUMN_KEY);
-                ret.put(cursor.getString(keyColIdx), cursor.getString(valColIdx));
-            } catch (IllegalArgumentException exx) {
+
+        mLock.lock();
+        try {
+            for (int start = 0; start < keys.size(); start += MAX_KEYS_PER_QUERY) {
+                List<String> chunk = keys.subList(start,
+                        Math.min(keys.size(), start + MAX_KEYS_PER_QUERY));
+
+                StringBuilder selection = new StringBuilder(KEYVAL_COLUMN_KEY).append(" IN (?");
+                for (int i = 1; i < chunk.size(); i++) {
+                    selection.append(", ?");
+                }
+                selection.append(")");
+
+                Cursor cursor = mStoreDB.query(KEYVAL_TABLE_NAME, KEYVAL_COLUMNS,
+                        selection.toString(), chunk.toArray(new String[chunk.size()]),
+                        null, null, null);
+                if (cursor == null) {
+                    continue;
+                }
+                try {
+                    int keyColIdx = cursor.getColumnIndexOrThrow(KEYVAL_COLUMN_KEY);
+                    int valColIdx = cursor.getColumnIndexOrThrow(KEYVAL_COLUMN_VAL);
+                    while (cursor.moveToNext()) {
+                        ret.put(cursor.getString(keyColIdx), cursor.getString(valColIdx));
+                    }
+                } finally {
+                    cursor.close();
+                }
             }
+        } finally {
+            mLock.unlock();
         }
 
-        if(cursor != null) {
-            cursor.close();
+        return ret;
+    }
+
+    public HashMap<String, String> getQueryVals(String query) {
+        query = query.replace('*', '%');
+        HashMap<String, String> ret = new HashMap<String, String>();
+
+        mLock.lock();
+        try {
+            Cursor cursor = mStoreDB.query(KEYVAL_TABLE_NAME, KEYVAL_COLUMNS, KEYVAL_COLUMN_KEY
+                    + " LIKE ?", new String[] { query }, null, null, null);
+
+            while (cursor != null && cursor.moveToNext()) {
+                try {
+                    int valColIdx = cursor.getColumnIndexOrThrow(KEYVAL_COLUMN_VAL);
+                    int keyColIdx = cursor.getColumnIndexOrThrow(KEYVAL_COLUMN_KEY);
+                    ret.put(cursor.getString(keyColIdx), cursor.getString(valColIdx));
+                } catch (IllegalArgumentException exx) {
+                }
+            }
+
+            if(cursor != null) {
+                cursor.close();
+            }
+        } finally {
+            mLock.unlock();
         }
 
         return ret;
@@ -162,6 +286,54 @@ public class KeyValDatabase {
         public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
             // Nothing to do here ...
         }
+
+        /**
+         * Turns on write-ahead logging, so a commit is a single append instead of a rollback
+         * journal write and an fsync of the main file. Called on API 16 and up only. The
+         * framework opens every connection of a WAL database with the WAL sync mode (NORMAL),
+         * so the sync mode isn't set here.
+         */
+        @Override
+        public void onConfigure(SQLiteDatabase sqLiteDatabase) {
+            super.onConfigure(sqLiteDatabase);
+            tune(sqLiteDatabase, false);
+        }
+
+        /**
+         * Below API 16, where <code>onConfigure</code> isn't called, tunes the database's only
+         * connection: write-ahead logging, NORMAL sync (safe with WAL) and a small page cache.
+         */
+        @Override
+        public void onOpen(SQLiteDatabase sqLiteDatabase) {
+            super.onOpen(sqLiteDatabase);
+
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+                tune(sqLiteDatabase, true);
+            }
+        }
+
+        private void tune(SQLiteDatabase sqLiteDatabase, boolean singleConnection) {
+            if (sqLiteDatabase.isReadOnly()) {
+                return;
+            }
+
+            // the defaults still work, they're just slower
+            try {
+                if (!sqLiteDatabase.enableWriteAheadLogging()) {
+                    StoreUtils.LogDebug(TAG, "Couldn't enable write-ahead logging.");
+                }
+                if (singleConnection) {
+                    // pragmas only apply to the connection they run on
+                    sqLiteDatabase.execSQL("PRAGMA synchronous=NORMAL");
+                    sqLiteDatabase.execSQL("PRAGMA cache_size=" + CACHE_SIZE_PAGES);
+                }
+            } catch (SQLException e) {
+                StoreUtils.LogError(TAG, "Couldn't tune the database: " + e.getMessage());
+            } catch (IllegalStateException e) {
+                // enableWriteAheadLogging throws it if a transaction is open
+                StoreUtils.LogError(TAG, "Couldn't tune the database: " + e.getMessage());
+            }
+        }
     }
 
 
@@ -191,6 +363,28 @@ public class KeyValDatabase {
         return "meta.storeinfo";
     }
 
+    public static String keyMetaStoreInfoManifest() {
+        return "meta.storeinfo.manifest";
+    }
+
+    public static String keyMetaStoreInfoItem(String itemId) {
+        return "meta.storeinfo.item." + itemId;
+    }
+
+    public static String keyMetaStoreInfoOutdated() {
+        return "meta.storeinfo.outdated";
+    }
+
+    /**
+     * Checks if the given key holds the store's metadata, rather than the user's inventory.
+     *
+     * @param key the (non-obfuscated) key
+     * @return true if it's one of the <code>keyMeta</code> keys
+     */
+    public static boolean isMetaKey(String key) {
+        return key.startsWith("meta.");
+    }
+
 
     /** General key-value storage */
 
@@ -208,7 +402,24 @@ public class KeyValDatabase {
 
     private static final String DATABASE_NAME  = "store.kv.db";
 
+    private static final int CACHE_SIZE_PAGES = 128; // 512KB, plenty for the kv_store table
+
+    // well below SQLite's default limit of 999 parameters per statement
+    private static final int MAX_KEYS_PER_QUERY = 500;
+
     private SQLiteDatabase mStoreDB;
 
     private DatabaseHelper mDatabaseHelper;
+
+    /**
+     * Guards the compiled statements below. A transaction holds it from
+     * <code>beginTransaction</code> to <code>endTransaction</code>, so that another thread can't
+     * grab it and then block on SQLite's own connection lock held by the transaction.
+     */
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    // compiled statements for the hot path
+    private SQLiteStatement mUpsertStmt;
+    private SQLiteStatement mGetStmt;
+    private SQLiteStatement mDeleteStmt;
 }
@@ -18,16 +18,33 @@ package com.soomla.store.data;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.text.TextUtils;
+import com.soomla.store.BusProvider;
 import com.soomla.store.SoomlaApp;
 import com.soomla.store.StoreConfig;
+import com.soomla.store.events.RecyclableEvent;
 import com.soomla.store.util.AESObfuscator;
 import com.soomla.store.StoreUtils;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This class provides basic storage operations for a simple key-value store.
+ *
+ * Values are kept in a write-through in-memory cache, filled on first read and updated by
+ * <code>setValue</code> and <code>deleteKeyValue</code>, so repeated
+ * reads of the same key (balances, equipped status, upgrades) don't go to the database again.
+ * Writes can optionally be made asynchronous, see {@link #setAsyncWrites(boolean)}.
  */
 public class KeyValueStorage {
 
@@ -46,9 +63,28 @@ public class KeyValueStorage {
     public String getValue(String key) {
         StoreUtils.LogDebug(TAG, "trying to fetch a value for key: " + key);
 
-        key = getAESObfuscator().obfuscateString(key);
+        synchronized (mCache) {
+            if (mCache.containsKey(key)) {
+                String val = mCache.get(key);
+                StoreUtils.LogDebug(TAG, "the fetched value (from cache) is " + val);
+                return val;
+            }
+        }
 
-        String val = getDatabase().getKeyVal(key);
+        // in async mode the newest value may not have been flushed to the DB yet
+        PendingBatch pendingBatch = mPendingBatch.get();
+        if (pendingBatch != null && pendingBatch.writes.containsKey(key)) {
+            return pendingBatch.writes.get(key);
+        }
+        synchronized (mPendingWrites) {
+            if (mPendingWrites.containsKey(key)) {
+                return mPendingWrites.get(key);
+            }
+        }
+
+        String obfKey = obfuscateKey(key);
+
+        String val = getDatabase().getKeyVal(obfKey);
 
         if (val != null && !TextUtils.isEmpty(val)) {
             try {
@@ -60,9 +96,129 @@ public class KeyValueStorage {
 
             StoreUtils.LogDebug(TAG, "the fetched value is " + val);
         }
+
+        if (!isCached(key)) {
+            return val;
+        }
+        synchronized (mCache) {
+            // a concurrent write may have already filled the cache with a newer value
+            if (!mCache.containsKey(key)) {
+                mCache.put(key, val);
+            }
+        }
         return val;
     }
 
+    /**
+     * Retrieves the values of all the given keys at once.
+     * Keys that are not in the cache are fetched together, in as few queries as possible, so this
+     * is much cheaper than calling <code>getValue</code> for each of them.
+     *
+     * @param keys the keys whose values are required
+     * @return hashmap of key-val pairs. Keys that have no value are not included.
+     */
+    public HashMap<String, String> getValues(Collection<String> keys) {
+        StoreUtils.LogDebug(TAG, "trying to fetch values for " + keys.size() + " keys");
+
+        HashMap<String, String> results = new HashMap<String, String>();
+        HashSet<String> misses = new HashSet<String>();
+        synchronized (mCache) {
+            for (String key : keys) {
+                if (mCache.containsKey(key)) {
+                    String val = mCache.get(key);
+                    if (val != null) {
+                        results.put(key, val);
+                    }
+                } else {
+                    misses.add(key);
+                }
+            }
+        }
+
+        if (misses.isEmpty()) {
+            return results;
+        }
+
+        // in async mode the newest values may not have been flushed to the DB yet
+        PendingBatch pendingBatch = mPendingBatch.get();
+        if (pendingBatch != null) {
+            Iterator<String> it = misses.iterator();
+            while (it.hasNext()) {
+                String key = it.next();
+                if (pendingBatch.writes.containsKey(key)) {
+                    String val = pendingBatch.writes.get(key);
+                    if (val != null) {
+                        results.put(key, val);
+                    }
+                    it.remove();
+                }
+            }
+        }
+        synchronized (mPendingWrites) {
+            Iterator<String> it = misses.iterator();
+            while (it.hasNext()) {
+                String key = it.next();
+                if (mPendingWrites.containsKey(key)) {
+                    String val = mPendingWrites.get(key);
+                    if (val != null) {
+                        results.put(key, val);
+                    }
+                    it.remove();
+                }
+            }
+        }
+
+        HashMap<String, String> obfKeys = new HashMap<String, String>();
+        for (String key : misses) {
+            obfKeys.put(key, obfuscateKey(key));
+        }
+
+        HashMap<String, String> found = new HashMap<String, String>();
+        HashMap<String, String> vals =
+                getDatabase().getKeyVals(new ArrayList<String>(obfKeys.values()));
+        for (String key : misses) {
+            String val = vals.get(obfKeys.get(key));
+            if (val == null) {
+                continue;
+            }
+
+            if (!TextUtils.isEmpty(val)) {
+                try {
+                    val = getAESObfuscator().unobfuscateToString(val);
+                } catch (AESObfuscator.ValidationException e) {
+                    StoreUtils.LogError(TAG, e.getMessage());
+                    val = "";
+                }
+            }
+            found.put(key, val);
+        }
+
+        synchronized (mCache) {
+            for (String key : misses) {
+                String val = found.get(key);
+                if (!isCached(key)) {
+                    if (val != null) {
+                        results.put(key, val);
+                    }
+                    continue;
+                }
+                // a concurrent write may have already filled the cache with a newer value
+                if (!mCache.containsKey(key)) {
+                    mCache.put(key, val);
+                } else {
+                    val = mCache.get(key);
+                }
+                if (val != null) {
+                    results.put(key, val);
+                }
+            }
+        }
+
+        StoreUtils.LogDebug(TAG, "fetched " + results.size() + " values");
+
+        return results;
+    }
+
     /**
      * Sets key-val pair in the database according to given key and val.
      *
@@ -149,10 +305,21 @@ public class KeyValueStorage {
     public void setValue(String key, String val) {
         StoreUtils.LogDebug(TAG, "setting " + val + " for key: " + key);
 
-        key = getAESObfuscator().obfuscateString(key);
-        val = getAESObfuscator().obfuscateString(val);
+        if (mAsyncWrites) {
+            enqueueWrite(key, val);
+            return;
+        }
 
-        getDatabase().setKeyVal(key, val);
+        String obfKey = obfuscateKey(key);
+        String obfVal = getAESObfuscator().obfuscateString(val);
+
+        getDatabase().setKeyVal(obfKey, obfVal);
+
+        if (isCached(key)) {
+            synchronized (mCache) {
+                mCache.put(key, val);
+            }
+        }
     }
 
     /**
@@ -163,9 +330,353 @@ public class KeyValueStorage {
     public void deleteKeyValue(String key) {
         StoreUtils.LogDebug(TAG, "deleting " + key);
 
-        key = getAESObfuscator().obfuscateString(key);
+        if (mAsyncWrites) {
+            // a null value is read back exactly like a missing key
+            enqueueWrite(key, null);
+            return;
+        }
+
+        String obfKey = obfuscateKey(key);
 
-        getDatabase().deleteKeyVal(key);
+        getDatabase().deleteKeyVal(obfKey);
+
+        // a null entry means "known to be missing", so the next read won't hit the DB
+        if (isCached(key)) {
+            synchronized (mCache) {
+                mCache.put(key, null);
+            }
+        }
+    }
+
+    /**
+     * Starts a batch of writes. Every <code>setValue</code> and <code>deleteKeyValue</code> done by
+     * the calling thread until the batch ends is committed to the database at once, so a compound
+     * operation (like paying with currency and then giving the purchased item) is both faster and
+     * atomic. Batches may be nested.
+     * Events posted with {@link #post(Object)} during the batch are held back until it ends, and
+     * are dropped if it's rolled back.
+     *
+     * Batches of different threads never overlap: a batch holds this storage's batch lock until it
+     * ends (and, unless writes are asynchronous, the database's lock, which is always taken after
+     * it). A read-modify-write inside a batch is therefore never interleaved with another one,
+     * and callers don't need locks of their own to hold around calls to the storage.
+     *
+     * Usage:
+     * <pre>
+     *   KeyValueStorage.Batch batch = StorageManager.getKeyValueStorage().batch();
+     *   try {
+     *     ...
+     *     batch.setSuccessful();
+     *   } finally {
+     *     batch.end();
+     *   }
+     * </pre>
+     *
+     * @return the started batch
+     */
+    public Batch batch() {
+        mBatchLock.lock();
+        try {
+            if (mAsyncWrites) {
+                return new Batch(true);
+            }
+            getDatabase().beginTransaction();
+            return new Batch(false);
+        } catch (RuntimeException e) {
+            mBatchLock.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Posts the given event to the event bus. If the calling thread is in a batch, the event is
+     * posted only after the outermost batch commits, so subscribers never hear about changes that
+     * are rolled back.
+     *
+     * @param event the event to post
+     */
+    public void post(Object event) {
+        PendingBatch pendingBatch = mPendingBatch.get();
+        if (pendingBatch != null) {
+            pendingBatch.events.add(event);
+            return;
+        }
+        BusProvider.getInstance().post(event);
+    }
+
+    /**
+     * Turns asynchronous writes on or off.
+     * With asynchronous writes <code>setValue</code> and <code>deleteKeyValue</code> only update
+     * the in-memory state and return right away. A single background thread coalesces the pending
+     * writes per key and commits them to the database shortly after.
+     * Call {@link #flush()} wherever your data must be on disk (for example when the game goes to
+     * the background). Turning asynchronous writes off flushes all the pending writes.
+     *
+     * @param async true to write asynchronously, false to write on the calling thread
+     */
+    public void setAsyncWrites(boolean async) {
+        synchronized (mPendingWrites) {
+            if (async && mWriterHandler == null) {
+                HandlerThread writerThread = new HandlerThread(TAG + " writer",
+                        Process.THREAD_PRIORITY_BACKGROUND);
+                writerThread.start();
+                mWriterHandler = new Handler(writerThread.getLooper());
+            }
+            mAsyncWrites = async;
+        }
+
+        if (!async) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes all pending asynchronous writes to the database and returns when they are committed.
+     * Does nothing if there are no pending writes.
+     */
+    public void flush() {
+        synchronized (mPendingWrites) {
+            if (mWriterHandler == null) {
+                // asynchronous writes were never turned on
+                return;
+            }
+        }
+
+        KeyValDatabase db = getDatabase();
+
+        // the pending writes are drained inside the transaction: a reader that doesn't find its
+        // key in them anymore will block on the DB until they're committed.
+        db.beginTransaction();
+        LinkedHashMap<String, String> writes = null;
+        boolean committed = false;
+        try {
+            synchronized (mPendingWrites) {
+                mFlushScheduled = false;
+                if (mPendingWrites.isEmpty()) {
+                    return;
+                }
+                writes = new LinkedHashMap<String, String>(mPendingWrites);
+                mPendingWrites.clear();
+            }
+
+            StoreUtils.LogDebug(TAG, "flushing " + writes.size() + " pending writes");
+            for (Map.Entry<String, String> write : writes.entrySet()) {
+                String obfKey = obfuscateKey(write.getKey());
+                if (write.getValue() == null) {
+                    db.deleteKeyVal(obfKey);
+                } else {
+                    db.setKeyVal(obfKey, getAESObfuscator().obfuscateString(write.getValue()));
+                }
+            }
+            db.setTransactionSuccessful();
+            committed = true;
+        } finally {
+            db.endTransaction();
+
+            if (!committed && writes != null) {
+                // put back whatever wasn't overwritten in the meantime, so it isn't lost
+                synchronized (mPendingWrites) {
+                    for (Map.Entry<String, String> write : writes.entrySet()) {
+                        if (!mPendingWrites.containsKey(write.getKey())) {
+                            mPendingWrites.put(write.getKey(), write.getValue());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts writing all pending asynchronous writes to the database on the writer thread right
+     * away, and returns without waiting for them to be committed. Does nothing if there are no
+     * pending writes.
+     */
+    public void flushAsync() {
+        synchronized (mPendingWrites) {
+            if (mWriterHandler == null || mPendingWrites.isEmpty()) {
+                return;
+            }
+            // replaces the delayed flush, if there's one
+            mWriterHandler.removeCallbacks(mFlushRunnable);
+            mFlushScheduled = true;
+            mWriterHandler.post(mFlushRunnable);
+        }
+    }
+
+    /**
+     * Drops all cached values. The next read of every key will go to the database.
+     */
+    public void clearCache() {
+        synchronized (mCache) {
+            mCache.clear();
+            mCacheGeneration++;
+        }
+    }
+
+    /**
+     * Retrieves the number of times the cache was cleared. Values that were cached elsewhere
+     * (like the balances in {@link VirtualItemStorage}) are valid only as long as this doesn't
+     * change.
+     *
+     * @return the generation of the cache
+     */
+    public int getCacheGeneration() {
+        return mCacheGeneration;
+    }
+
+    /**
+     * Forgets the obfuscator and the memoized key obfuscations, which are derived from the device
+     * id, so they're derived again on the next read or write. Called by
+     * {@link StoreUtils#invalidateDeviceId()}.
+     */
+    public static void invalidateKeys() {
+        synchronized (mObfuscatedKeys) {
+            mObfuscator = null;
+            mObfuscatedKeys.clear();
+        }
+    }
+
+    /**
+     * A batch of writes started with {@link #batch()}.
+     */
+    public class Batch {
+
+        /**
+         * Constructor
+         *
+         * @param async true if the batch collects asynchronous writes instead of running a
+         *              database transaction
+         */
+        private Batch(boolean async) {
+            mAsync = async;
+            mOwner = mPendingBatch.get() == null;
+            if (mOwner) {
+                mPendingBatch.set(new PendingBatch());
+            }
+        }
+
+        /**
+         * Marks the batch as successful. Unless this is called before <code>end</code>, all the
+         * writes of the batch are rolled back.
+         */
+        public void setSuccessful() {
+            if (!mAsync) {
+                getDatabase().setTransactionSuccessful();
+            }
+            mSuccessful = true;
+        }
+
+        /**
+         * Ends the batch, committing or rolling back its writes.
+         */
+        public void end() {
+            PendingBatch pendingBatch = mPendingBatch.get();
+            if (!mSuccessful) {
+                // like nested transactions: a failed inner batch fails the outer one
+                pendingBatch.failed = true;
+            }
+
+            try {
+                try {
+                    if (!mAsync) {
+                        getDatabase().endTransaction();
+                    }
+                } finally {
+                    if (mOwner) {
+                        mPendingBatch.remove();
+                    }
+                }
+
+                if (mOwner && !pendingBatch.failed && !pendingBatch.writes.isEmpty()) {
+                    // queued all at once, so a flush never sees only part of the batch
+                    synchronized (mPendingWrites) {
+                        mPendingWrites.putAll(pendingBatch.writes);
+                        scheduleFlushLocked();
+                    }
+                }
+
+                if (!mSuccessful || (mOwner && pendingBatch.failed)) {
+                    // the cache was already written through, it can't be trusted after a rollback
+                    clearCache();
+                }
+            } finally {
+                mBatchLock.unlock();
+            }
+
+            // subscribers are called without the lock
+            if (mOwner) {
+                postEvents(pendingBatch);
+            }
+        }
+
+
+        /** Private Members **/
+
+        private boolean mSuccessful = false;
+
+        private boolean mAsync;
+
+        private boolean mOwner; // true if this is the outermost async batch of its thread
+    }
+
+    /**
+     * Checks if the value of the given key is kept in the cache. The store's metadata is read once
+     * when the store is loaded and is kept by <code>StoreInfo</code>, so caching it would only
+     * keep a second copy of the whole catalog in memory.
+     */
+    private static boolean isCached(String key) {
+        return !KeyValDatabase.isMetaKey(key);
+    }
+
+    /**
+     * Updates the cache and queues the given write for the background writer thread.
+     */
+    private void enqueueWrite(String key, String val) {
+        // makes sure the metadata version check ran before anything is queued
+        getDatabase();
+
+        if (isCached(key)) {
+            synchronized (mCache) {
+                mCache.put(key, val);
+            }
+        }
+
+        PendingBatch pendingBatch = mPendingBatch.get();
+        if (pendingBatch != null) {
+            pendingBatch.writes.put(key, val);
+            return;
+        }
+
+        synchronized (mPendingWrites) {
+            mPendingWrites.put(key, val);
+            scheduleFlushLocked();
+        }
+    }
+
+    /**
+     * Posts the events held back by the given batch, or drops them if it was rolled back.
+     */
+    private static void postEvents(PendingBatch pendingBatch) {
+        for (Object event : pendingBatch.events) {
+            if (!pendingBatch.failed) {
+                BusProvider.getInstance().post(event);
+            } else if (event instanceof RecyclableEvent) {
+                // the reference the poster handed over with the event
+                ((RecyclableEvent) event).release();
+            }
+        }
+    }
+
+    /**
+     * Schedules a flush on the writer thread, unless one is scheduled already.
+     * Must be called while holding <code>mPendingWrites</code>.
+     */
+    private void scheduleFlushLocked() {
+        if (mFlushScheduled || mWriterHandler == null) {
+            return;
+        }
+        mFlushScheduled = true;
+        mWriterHandler.postDelayed(mFlushRunnable, ASYNC_FLUSH_DELAY_MS);
     }
 
     /**
@@ -184,32 +695,79 @@ public class KeyValueStorage {
             int mt_ver = prefs.getInt("MT_VER", 0);
             int sa_ver_old = prefs.getInt("SA_VER_OLD", -1);
             int sa_ver_new = prefs.getInt("SA_VER_NEW", 0);
-            if (mt_ver < StoreConfig.METADATA_VERSION || sa_ver_old < sa_ver_new) {
+            if (mt_ver < StoreConfig.METADATA_VERSION) {
                 SharedPreferences.Editor edit = prefs.edit();
                 edit.putInt("MT_VER", StoreConfig.METADATA_VERSION);
                 edit.putInt("SA_VER_OLD", sa_ver_new);
                 edit.commit();
 
-                String keyStoreInfo=mObfuscator.obfuscateString(KeyValDatabase.keyMetaStoreInfo());
-                mKvDatabase.deleteKeyVal(keyStoreInfo);
+                // the items saved on their own are only read through the manifest, so removing
+                // the manifest is enough to drop them too
+                String[] metaKeys = { KeyValDatabase.keyMetaStoreInfo(),
+                        KeyValDatabase.keyMetaStoreInfoManifest(),
+                        KeyValDatabase.keyMetaStoreInfoOutdated() };
+                for (String metaKey : metaKeys) {
+                    mKvDatabase.deleteKeyVal(obfuscateKey(metaKey));
+                }
+            } else if (sa_ver_old < sa_ver_new) {
+                // the metadata is kept, and StoreInfo.setStoreAssets() replaces only the items
+                // that changed in the new version. the mark is written before the version is
+                // saved, so an update that's interrupted is done again on the next run.
+                String metaKey = KeyValDatabase.keyMetaStoreInfoOutdated();
+                mKvDatabase.setKeyVal(obfuscateKey(metaKey),
+                        getAESObfuscator().obfuscateString(String.valueOf(sa_ver_new)));
+
+                SharedPreferences.Editor edit = prefs.edit();
+                edit.putInt("SA_VER_OLD", sa_ver_new);
+                edit.commit();
             }
         }
 
         return mKvDatabase;
     }
 
+    /**
+     * Obfuscates the given key.
+     * The obfuscator uses a fixed IV, so a key is always obfuscated to the same string. The
+     * results are memoized, which leaves only values paying for encryption on the hot path.
+     *
+     * @param key the plain key
+     * @return the obfuscated key, as stored in the database
+     */
+    private static String obfuscateKey(String key) {
+        synchronized (mObfuscatedKeys) {
+            String obfKey = mObfuscatedKeys.get(key);
+            if (obfKey != null) {
+                return obfKey;
+            }
+        }
+
+        AESObfuscator obfuscator = getAESObfuscator();
+        String obfKey = obfuscator.obfuscateString(key);
+
+        synchronized (mObfuscatedKeys) {
+            // not memoized if the keys were invalidated in the meantime
+            if (obfuscator == mObfuscator) {
+                mObfuscatedKeys.put(key, obfKey);
+            }
+        }
+        return obfKey;
+    }
+
     /**
      * Retrieves AESObfuscator
      *
      * @return AESObfuscator
      */
     private static AESObfuscator getAESObfuscator(){
-        if (mObfuscator == null) {
-            mObfuscator = new AESObfuscator(StoreConfig.obfuscationSalt,
+        AESObfuscator obfuscator = mObfuscator;
+        if (obfuscator == null) {
+            obfuscator = new AESObfuscator(StoreConfig.obfuscationSalt,
                     SoomlaApp.getAppContext().getPackageName(), StoreUtils.deviceId());
+            mObfuscator = obfuscator;
         }
 
-        return mObfuscator;
+        return obfuscator;
     }
 
 
@@ -217,7 +775,66 @@ public class KeyValueStorage {
 
     private static final String TAG = "SOOMLA KeyValueStorage"; //used for Log Messages
 
-    private static AESObfuscator mObfuscator;
+    private static volatile AESObfuscator mObfuscator;
 
     private static KeyValDatabase mKvDatabase;
+
+    // held by a batch from start to end, see batch()
+    private static final ReentrantLock mBatchLock = new ReentrantLock();
+
+    // write-through cache of decrypted values, keyed by the plain (non-obfuscated) key. only
+    // the inventory is cached, see isCached().
+    private static final HashMap<String, String> mCache = new HashMap<String, String>();
+
+    // bumped every time the cache is cleared. starts at 1 so that 0 is never a valid generation.
+    private static volatile int mCacheGeneration = 1;
+
+    private static final int MAX_OBFUSCATED_KEYS = 1024;
+
+    // memoized key obfuscations, least recently used ones are evicted first
+    private static final LinkedHashMap<String, String> mObfuscatedKeys =
+            new LinkedHashMap<String, String>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > MAX_OBFUSCATED_KEYS;
+                }
+            };
+
+    // how long the writer thread waits to coalesce more writes before flushing
+    private static final long ASYNC_FLUSH_DELAY_MS = 100;
+
+    private volatile boolean mAsyncWrites = false;
+
+    // writes waiting for the writer thread, by plain key. A null value is a delete.
+    private final LinkedHashMap<String, String> mPendingWrites =
+            new LinkedHashMap<String, String>();
+
+    // guarded by mPendingWrites
+    private boolean mFlushScheduled = false;
+
+    // guarded by mPendingWrites
+    private Handler mWriterHandler;
+
+    // the writes and events of the current thread's batch, if it's in one
+    private final ThreadLocal<PendingBatch> mPendingBatch = new ThreadLocal<PendingBatch>();
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                StoreUtils.LogError(TAG, "Couldn't flush pending writes: " + e.getMessage());
+            }
+        }
+    };
+
+    /**
+     * The writes (of an asynchronous batch) and the events collected by a batch until it ends.
+     */
+    private static class PendingBatch {
+        LinkedHashMap<String, String> writes = new LinkedHashMap<String, String>();
+        ArrayList<Object> events = new ArrayList<Object>();
+        boolean failed = false;
+    }
 }
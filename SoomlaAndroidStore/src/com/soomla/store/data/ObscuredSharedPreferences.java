@@ -10,6 +10,7 @@ import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
 import javax.crypto.spec.PBEParameterSpec;
+import java.security.GeneralSecurityException;
 import java.util.Map;
 import java.util.Set;
 
@@ -155,10 +156,7 @@ public class ObscuredSharedPreferences implements SharedPreferences {
 
         try {
             final byte[] bytes = value!=null ? value.getBytes(UTF8) : new byte[0];
-            SecretKeyFactory keyFactory = SecretKeyFactory.getInstance("PBEWithMD5AndDES");
-            SecretKey key = keyFactory.generateSecret(new PBEKeySpec((StoreConfig.SOOM_SEC + SoomlaApp.getAppContext().getPackageName() + StoreUtils.deviceId()).toCharArray()));
-            Cipher pbeCipher = Cipher.getInstance("PBEWithMD5AndDES");
-            pbeCipher.init(Cipher.ENCRYPT_MODE, key, new PBEParameterSpec(StoreUtils.deviceId().getBytes(UTF8), 20));
+            Cipher pbeCipher = getKeys().mEncryptor.get();
             return new String(Base64.encode(pbeCipher.doFinal(bytes), Base64.NO_WRAP),UTF8);
 
         } catch( Exception e ) {
@@ -170,10 +168,7 @@ public class ObscuredSharedPreferences implements SharedPreferences {
     protected String decrypt(String value){
         try {
             final byte[] bytes = value!=null ? Base64.decode(value,Base64.DEFAULT) : new byte[0];
-            SecretKeyFactory keyFactory = SecretKeyFactory.getInstance("PBEWithMD5AndDES");
-            SecretKey key = keyFactory.generateSecret(new PBEKeySpec((StoreConfig.SOOM_SEC + SoomlaApp.getAppContext().getPackageName() + StoreUtils.deviceId()).toCharArray()));
-            Cipher pbeCipher = Cipher.getInstance("PBEWithMD5AndDES");
-            pbeCipher.init(Cipher.DECRYPT_MODE, key, new PBEParameterSpec(StoreUtils.deviceId().getBytes(UTF8), 20));
+            Cipher pbeCipher = getKeys().mDecryptor.get();
             return new String(pbeCipher.doFinal(bytes),UTF8);
 
         } catch( Exception e) {
@@ -181,4 +176,76 @@ public class ObscuredSharedPreferences implements SharedPreferences {
         }
     }
 
+    /**
+     * Forgets the key derived from the device id, so it's derived again on the next encrypt or
+     * decrypt. Call this if the device id changes.
+     */
+    public static void invalidateKeys() {
+        synchronized (ObscuredSharedPreferences.class) {
+            mKeys = null;
+        }
+    }
+
+    /**
+     * Retrieves the key material for this process, deriving it on first use. The PBE key
+     * derivation and the device id lookup are expensive so they're done only once.
+     */
+    private static Keys getKeys() throws Exception {
+        Keys keys = mKeys;
+        if (keys == null) {
+            synchronized (ObscuredSharedPreferences.class) {
+                keys = mKeys;
+                if (keys == null) {
+                    keys = new Keys();
+                    mKeys = keys;
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * The derived key and salt, plus a pair of initialized ciphers for each thread that uses them.
+     */
+    private static class Keys {
+
+        Keys() throws Exception {
+            String deviceId = StoreUtils.deviceId();
+            SecretKeyFactory keyFactory = SecretKeyFactory.getInstance("PBEWithMD5AndDES");
+            mKey = keyFactory.generateSecret(new PBEKeySpec((StoreConfig.SOOM_SEC + SoomlaApp.getAppContext().getPackageName() + deviceId).toCharArray()));
+            mParams = new PBEParameterSpec(deviceId.getBytes(UTF8), 20);
+
+            // fail here, rather than on the first encrypt or decrypt, if the ciphers can't be created
+            mEncryptor.get();
+            mDecryptor.get();
+        }
+
+        private Cipher createCipher(int mode) {
+            try {
+                Cipher pbeCipher = Cipher.getInstance("PBEWithMD5AndDES");
+                pbeCipher.init(mode, mKey, mParams);
+                return pbeCipher;
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        private final SecretKey mKey;
+        private final PBEParameterSpec mParams;
+
+        private final ThreadLocal<Cipher> mEncryptor = new ThreadLocal<Cipher>() {
+            @Override
+            protected Cipher initialValue() {
+                return createCipher(Cipher.ENCRYPT_MODE);
+            }
+        };
+        private final ThreadLocal<Cipher> mDecryptor = new ThreadLocal<Cipher>() {
+            @Override
+            protected Cipher initialValue() {
+                return createCipher(Cipher.DECRYPT_MODE);
+            }
+        };
+    }
+
+    private static volatile Keys mKeys;
 }
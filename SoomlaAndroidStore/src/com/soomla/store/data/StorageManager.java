@@ -45,6 +45,35 @@ public class StorageManager {
         return mKeyValueStorage;
     }
 
+    /**
+     * Turns asynchronous storage writes on or off.
+     * See {@link KeyValueStorage#setAsyncWrites(boolean)}.
+     *
+     * @param async true to write balances and other inventory changes on a background thread
+     */
+    public static void setAsyncWrites(boolean async) {
+        mKeyValueStorage.setAsyncWrites(async);
+    }
+
+    /**
+     * Writes all pending asynchronous storage writes to the database, and returns when they are
+     * committed. Blocks the calling thread until then, so call it off the main thread, or where
+     * the data must be on disk before going on.
+     */
+    public static void flush() {
+        mKeyValueStorage.flush();
+    }
+
+    /**
+     * Starts writing all pending asynchronous storage writes to the database in the background,
+     * without waiting for them to be committed. <code>SoomlaApp</code> calls this when the
+     * application's UI is hidden. If you don't use <code>SoomlaApp</code>, call it yourself (for
+     * example in <code>onPause</code>).
+     */
+    public static void flushAsync() {
+        mKeyValueStorage.flushAsync();
+    }
+
     /**
      * Checks whether the given item belongs to <code>VirtualGoodStorage</code> or
      * <code>VirtualCurrencyStorage</code>.
@@ -62,6 +91,23 @@ public class StorageManager {
         return storage;
     }
 
+    /**
+     * Retrieves the storage of the balance of the virtual item with the given handle.
+     *
+     * @param handle the handle of the item, see {@link StoreInfo#getItemHandle(String)}
+     * @return the type of VirtualItemStorage, or null if the item has no balance
+     */
+    public static VirtualItemStorage getVirtualItemStorage(int handle) {
+        switch (ItemHandles.getStorage(handle)) {
+            case ItemHandles.STORAGE_GOODS:
+                return getVirtualGoodsStorage();
+            case ItemHandles.STORAGE_CURRENCIES:
+                return getVirtualCurrencyStorage();
+            default:
+                return null;
+        }
+    }
+
 
     /** Private Members **/
 
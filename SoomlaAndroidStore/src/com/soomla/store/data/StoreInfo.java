@@ -17,7 +17,9 @@
 package com.soomla.store.data;
 
 import android.text.TextUtils;
+import com.soomla.store.BusProvider;
 import com.soomla.store.IStoreAssets;
+import com.soomla.store.StoreConfig;
 import com.soomla.store.StoreUtils;
 import com.soomla.store.domain.NonConsumableItem;
 import com.soomla.store.domain.PurchasableVirtualItem;
@@ -26,14 +28,16 @@ import com.soomla.store.domain.VirtualItem;
 import com.soomla.store.domain.virtualCurrencies.VirtualCurrency;
 import com.soomla.store.domain.virtualCurrencies.VirtualCurrencyPack;
 import com.soomla.store.domain.virtualGoods.*;
+import com.soomla.store.events.StoreMetadataChangedEvent;
 import com.soomla.store.exceptions.VirtualItemNotFoundException;
-import com.soomla.store.purchaseTypes.PurchaseType;
-import com.soomla.store.purchaseTypes.PurchaseWithMarket;
+import com.soomla.store.util.Base64;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class holds the store's metadata including:
@@ -52,9 +56,11 @@ public class StoreInfo {
      * After the first initialization, <code>StoreInfo</code> will be initialized from the database.
      *
      * IMPORTANT: If you want to override the current <code>StoreInfo</code>, you'll have to bump
-     * the version of your implementation of <code>IStoreAssets</code> in order to remove the
+     * the version of your implementation of <code>IStoreAssets</code> in order to replace the
      * metadata when the application loads. Bumping the version is done by returning a higher number
-     * in {@link com.soomla.store.IStoreAssets#getVersion()}.
+     * in {@link com.soomla.store.IStoreAssets#getVersion()}. The metadata in the database is then
+     * compared with the given <code>IStoreAssets</code>, only the items that changed are replaced,
+     * and a {@link com.soomla.store.events.StoreMetadataChangedEvent} lists them.
      */
     public static void setStoreAssets(IStoreAssets storeAssets){
         if (storeAssets == null){
@@ -63,8 +69,11 @@ public class StoreInfo {
         }
         // we always initialize from the database, unless this is the first time the game is
         // loaded - in that case we initialize with setStoreAssets.
-        if (!initializeFromDB()){
+        boolean outdated = isOutdated();
+        if (!loadFromDB()){
             initializeWithStoreAssets(storeAssets);
+        } else if (outdated) {
+            updateWithStoreAssets(storeAssets);
         }
     }
 
@@ -76,6 +85,31 @@ public class StoreInfo {
      * @return success
      */
     public static boolean initializeFromDB() {
+        if (isOutdated()) {
+            StoreUtils.LogDebug(TAG, "the metadata in the DB is of an older version of the store "
+                    + "assets. It needs to be updated with setStoreAssets.");
+            return false;
+        }
+        return loadFromDB();
+    }
+
+    /**
+     * Checks if the version of the store assets was bumped since the metadata in the database was
+     * saved.
+     *
+     * @return true if the metadata needs to be updated from the store assets
+     */
+    private static boolean isOutdated() {
+        return !TextUtils.isEmpty(StorageManager.getKeyValueStorage().getValue(
+                KeyValDatabase.keyMetaStoreInfoOutdated()));
+    }
+
+    /**
+     * Initializes <code>StoreInfo</code> from the metadata in the database.
+     *
+     * @return success
+     */
+    private static boolean loadFromDB() {
         String key = KeyValDatabase.keyMetaStoreInfo();
         String val = StorageManager.getKeyValueStorage().getValue(key);
 
@@ -84,14 +118,38 @@ public class StoreInfo {
             return false;
         }
 
+        if (!val.startsWith("{")) {
+            try {
+                CatalogReader reader = new CatalogReader(Base64.decode(val));
+                if (StoreConfig.lazyCatalog) {
+                    CatalogSnapshot snapshot = CatalogSnapshot.lazy(reader);
+                    ItemHandles.register(snapshot);
+                    mSnapshot.set(snapshot);
+                } else {
+                    initializeWith(reader.getCurrencies(), reader.getCurrencyPacks(),
+                            reader.getGoods(), reader.getCategories(),
+                            reader.getNonConsumables());
+                }
+                loadSavedItems();
+
+                // everything went well... StoreInfo is initialized from the local DB.
+                return true;
+            } catch (Exception e) {
+                StoreUtils.LogDebug(TAG, "Can't decode the metadata catalog. Going to return "
+                        + "false and make StoreInfo load from static data: " + e.getMessage());
+                return false;
+            }
+        }
+
+        // the metadata was saved as JSON, by an older version or imported from somewhere else
         StoreUtils.LogDebug(TAG, "the metadata-economy json (from DB) is " + val);
 
         try {
             fromJSONObject(new JSONObject(val));
 
             // everything went well... StoreInfo is initialized from the local DB.
-            // it's ok to return now.
-
+            // saving it again converts it to the binary catalog format.
+            save();
             return true;
         } catch (JSONException e) {
             StoreUtils.LogDebug(TAG, "Can't parse metadata json. Going to return false and make "
@@ -110,7 +168,7 @@ public class StoreInfo {
      * <code>goodItemId</code>, otherwise false.
      */
     public static boolean hasUpgrades(String goodItemId) {
-        return mGoodsUpgrades.containsKey(goodItemId);
+        return mSnapshot.get().getGoodUpgrades(goodItemId) != null;
     }
 
 
@@ -125,7 +183,7 @@ public class StoreInfo {
      * <code>itemId</code> was found.
      */
     public static VirtualItem getVirtualItem(String itemId) throws VirtualItemNotFoundException{
-        VirtualItem item = mVirtualItems.get(itemId);
+        VirtualItem item = mSnapshot.get().getVirtualItem(itemId);
         if (item == null) {
             throw new VirtualItemNotFoundException("itemId", itemId);
         }
@@ -133,6 +191,46 @@ public class StoreInfo {
         return item;
     }
 
+    /**
+     * Retrieves the <code>VirtualItem</code> with the given handle.
+     *
+     * @param handle the handle of the required <code>VirtualItem</code>, see
+     *               {@link #getItemHandle(String)}
+     * @return virtual item for the given handle
+     * @throws VirtualItemNotFoundException if there's no item with the given handle in the
+     * metadata.
+     */
+    public static VirtualItem getVirtualItem(int handle) throws VirtualItemNotFoundException {
+        String itemId = ItemHandles.getItemId(handle);
+        VirtualItem item = itemId != null ? mSnapshot.get().getVirtualItem(itemId) : null;
+        if (item == null) {
+            throw new VirtualItemNotFoundException("handle", String.valueOf(handle));
+        }
+
+        return item;
+    }
+
+    /**
+     * Retrieves the handle of the <code>VirtualItem</code> with the given <code>itemId</code>.
+     * A handle is a small integer that's assigned to every item when the metadata is loaded.
+     * It stays the same for as long as the application runs, so it can be looked up once and
+     * then used on hot paths (for example with
+     * {@link com.soomla.store.StoreInventory#getVirtualItemBalance(int)}) instead of the itemId.
+     *
+     * @param itemId the itemId of the required <code>VirtualItem</code>
+     * @return the handle of the virtual item
+     * @throws VirtualItemNotFoundException if no <code>VirtualItem</code> with the given
+     * <code>itemId</code> was found.
+     */
+    public static int getItemHandle(String itemId) throws VirtualItemNotFoundException {
+        int handle = ItemHandles.get(itemId);
+        if (handle < 0) {
+            throw new VirtualItemNotFoundException("itemId", itemId);
+        }
+
+        return handle;
+    }
+
     /**
      * Retrieves a single <code>PurchasableVirtualItem</code> that resides in the metadata.
      * IMPORTANT: The retrieved <code>PurchasableVirtualItem</code> has a <code>PurchaseType</code>
@@ -145,7 +243,7 @@ public class StoreInfo {
      */
     public static PurchasableVirtualItem getPurchasableItem(String productId)
             throws VirtualItemNotFoundException{
-        PurchasableVirtualItem item = mPurchasableItems.get(productId);
+        PurchasableVirtualItem item = mSnapshot.get().getPurchasableItem(productId);
         if (item == null) {
             throw new VirtualItemNotFoundException("productId", productId);
         }
@@ -163,7 +261,7 @@ public class StoreInfo {
      */
     public static VirtualCategory getCategory(String goodItemId)
             throws VirtualItemNotFoundException {
-        VirtualCategory item = mGoodsCategories.get(goodItemId);
+        VirtualCategory item = mSnapshot.get().getCategory(goodItemId);
         if (item == null) {
             throw new VirtualItemNotFoundException("goodItemId", goodItemId);
         }
@@ -180,15 +278,7 @@ public class StoreInfo {
      * null if it has no upgrades.
      */
     public static UpgradeVG getGoodFirstUpgrade(String goodItemId) {
-        List<UpgradeVG> upgrades = mGoodsUpgrades.get(goodItemId);
-        if (upgrades != null) {
-            for(UpgradeVG upgradeVG : upgrades) {
-                if (TextUtils.isEmpty(upgradeVG.getPrevItemId())) {
-                    return upgradeVG;
-                }
-            }
-        }
-        return null;
+        return getGoodUpgrade(goodItemId, 1);
     }
 
     /**
@@ -200,15 +290,36 @@ public class StoreInfo {
      *     if there are no upgrades.
      */
     public static UpgradeVG getGoodLastUpgrade(String goodItemId) {
-        List<UpgradeVG> upgrades = mGoodsUpgrades.get(goodItemId);
-        if (upgrades != null) {
-            for(UpgradeVG upgradeVG : upgrades) {
-                if (TextUtils.isEmpty(upgradeVG.getNextItemId())) {
-                    return upgradeVG;
-                }
-            }
-        }
-        return null;
+        UpgradeChain chain = mSnapshot.get().getUpgradeChain(goodItemId);
+        return chain != null ? chain.getUpgrade(chain.size()) : null;
+    }
+
+    /**
+     * Retrieves the <code>UpgradeVG</code> of the given level for the given
+     * <code>goodItemId</code>. Levels start at 1 for the first upgrade, so the upgrade after the
+     * one of level n is the one of level n + 1.
+     *
+     * @param goodItemId The item id of the <code>VirtualGood</code> whose upgrade we are looking
+     *                   for.
+     * @param level The level of the upgrade.
+     * @return The upgrade of the given level, or null if the virtual good doesn't have that level.
+     */
+    public static UpgradeVG getGoodUpgrade(String goodItemId, int level) {
+        UpgradeChain chain = mSnapshot.get().getUpgradeChain(goodItemId);
+        return chain != null ? chain.getUpgrade(level) : null;
+    }
+
+    /**
+     * Retrieves the level of the given <code>UpgradeVG</code> among the upgrades of its virtual
+     * good.
+     *
+     * @param upgradeVG The upgrade whose level we want to know.
+     * @return The level of the upgrade, starting at 1, or 0 if it's not in its good's chain of
+     *     upgrades.
+     */
+    public static int getUpgradeLevel(UpgradeVG upgradeVG) {
+        UpgradeChain chain = mSnapshot.get().getUpgradeChain(upgradeVG.getGoodItemId());
+        return chain != null ? chain.getLevel(upgradeVG.getItemId()) : 0;
     }
 
     /**
@@ -220,31 +331,66 @@ public class StoreInfo {
      * @return list of all UpgradeVGs for the virtual good with the given <code>goodItemId</code>
      */
     public static List<UpgradeVG> getGoodUpgrades(String goodItemId) {
-        return mGoodsUpgrades.get(goodItemId);
+        return mSnapshot.get().getGoodUpgrades(goodItemId);
     }
 
+    // the lists of items are read-only. use replaceVirtualItem() or save() to change them.
+
     public static List<VirtualCurrency> getCurrencies(){
-        return mCurrencies;
+        return materializedSnapshot().getCurrencies();
     }
 
     public static List<VirtualCurrencyPack> getCurrencyPacks() {
-        return mCurrencyPacks;
+        return materializedSnapshot().getCurrencyPacks();
     }
 
     public static List<VirtualGood> getGoods() {
-        return mGoods;
+        return materializedSnapshot().getGoods();
     }
 
     public static List<NonConsumableItem> getNonConsumableItems() {
-        return mNonConsumables;
+        return materializedSnapshot().getNonConsumables();
     }
 
     public static List<VirtualCategory> getCategories() {
-        return mCategories;
+        return mSnapshot.get().getCategories();
     }
 
     public static List<String> getAllProductIds() {
-        return new ArrayList<String>(mPurchasableItems.keySet());
+        return new ArrayList<String>(mSnapshot.get().getProductIds());
+    }
+
+    /**
+     * Retrieves the virtual goods of the given class, including the goods of its subclasses.
+     * For example, <code>getGoods(EquippableVG.class)</code> returns all of the equippable goods.
+     *
+     * @param goodClass the class of the goods
+     * @return read-only list of the goods, in the order of <code>getGoods()</code>
+     */
+    public static <T extends VirtualGood> List<T> getGoods(Class<T> goodClass) {
+        return materializedSnapshot().getGoods(goodClass);
+    }
+
+    /**
+     * Retrieves the virtual goods of the category with the given name.
+     *
+     * @param categoryName the name of the category
+     * @return read-only list of the goods in the category, or an empty list if there's no such
+     *     category
+     */
+    public static List<VirtualGood> getGoodsInCategory(String categoryName) {
+        return materializedSnapshot().getCategoryGoods(categoryName);
+    }
+
+    /**
+     * Retrieves the items that are purchased with the virtual item with the given
+     * <code>itemId</code>, for example all of the goods that cost a certain virtual currency.
+     *
+     * @param itemId the item id of the virtual item that's paid (usually a virtual currency)
+     * @return read-only list of the currency packs and goods that are purchased with the item
+     */
+    public static List<PurchasableVirtualItem> getItemsPurchasedWith(String itemId) {
+        return materializedSnapshot().getItemsPurchasedWith(itemId);
     }
 
 
@@ -256,42 +402,25 @@ public class StoreInfo {
      * @throws JSONException
      */
     private static void fromJSONObject(JSONObject jsonObject) throws JSONException {
-
-        mVirtualItems = new HashMap<String, VirtualItem>();
-        mPurchasableItems = new HashMap<String, PurchasableVirtualItem>();
-        mGoodsCategories = new HashMap<String, VirtualCategory>();
-        mGoodsUpgrades = new HashMap<String, List<UpgradeVG>>();
-        mCurrencyPacks = new LinkedList<VirtualCurrencyPack>();
-        mGoods = new LinkedList<VirtualGood>();
-        mCategories = new LinkedList<VirtualCategory>();
-        mCurrencies = new LinkedList<VirtualCurrency>();
-        mNonConsumables = new LinkedList<NonConsumableItem>();
+        List<VirtualCurrencyPack> currencyPacks = new ArrayList<VirtualCurrencyPack>();
+        List<VirtualGood> goods = new ArrayList<VirtualGood>();
+        List<VirtualCategory> categories = new ArrayList<VirtualCategory>();
+        List<VirtualCurrency> currencies = new ArrayList<VirtualCurrency>();
+        List<NonConsumableItem> nonConsumables = new ArrayList<NonConsumableItem>();
 
         if (jsonObject.has(JSONConsts.STORE_CURRENCIES)) {
             JSONArray virtualCurrencies = jsonObject.getJSONArray(JSONConsts.STORE_CURRENCIES);
             for (int i=0; i<virtualCurrencies.length(); i++){
                 JSONObject o = virtualCurrencies.getJSONObject(i);
-                VirtualCurrency c = new VirtualCurrency(o);
-                mCurrencies.add(c);
-
-                mVirtualItems.put(c.getItemId(), c);
+                currencies.add(new VirtualCurrency(o));
             }
         }
 
         if (jsonObject.has(JSONConsts.STORE_CURRENCYPACKS)) {
-            JSONArray currencyPacks = jsonObject.getJSONArray(JSONConsts.STORE_CURRENCYPACKS);
-            for (int i=0; i<currencyPacks.length(); i++){
-                JSONObject o = currencyPacks.getJSONObject(i);
-                VirtualCurrencyPack pack = new VirtualCurrencyPack(o);
-                mCurrencyPacks.add(pack);
-
-                mVirtualItems.put(pack.getItemId(), pack);
-
-                PurchaseType purchaseType = pack.getPurchaseType();
-                if (purchaseType instanceof PurchaseWithMarket) {
-                    mPurchasableItems.put(((PurchaseWithMarket) purchaseType)
-                            .getMarketItem().getProductId(), pack);
-                }
+            JSONArray packs = jsonObject.getJSONArray(JSONConsts.STORE_CURRENCYPACKS);
+            for (int i=0; i<packs.length(); i++){
+                JSONObject o = packs.getJSONObject(i);
+                currencyPacks.add(new VirtualCurrencyPack(o));
             }
         }
 
@@ -304,8 +433,7 @@ public class StoreInfo {
                 JSONArray suGoods = virtualGoods.getJSONArray(JSONConsts.STORE_GOODS_SU);
                 for (int i=0; i<suGoods.length(); i++){
                     JSONObject o = suGoods.getJSONObject(i);
-                    SingleUseVG g = new SingleUseVG(o);
-                    addVG(g);
+                    goods.add(new SingleUseVG(o));
                 }
             }
 
@@ -314,8 +442,7 @@ public class StoreInfo {
                 JSONArray ltGoods = virtualGoods.getJSONArray(JSONConsts.STORE_GOODS_LT);
                 for (int i=0; i<ltGoods.length(); i++){
                     JSONObject o = ltGoods.getJSONObject(i);
-                    LifetimeVG g = new LifetimeVG(o);
-                    addVG(g);
+                    goods.add(new LifetimeVG(o));
                 }
             }
 
@@ -324,8 +451,7 @@ public class StoreInfo {
                 JSONArray eqGoods = virtualGoods.getJSONArray(JSONConsts.STORE_GOODS_EQ);
                 for (int i=0; i<eqGoods.length(); i++){
                     JSONObject o = eqGoods.getJSONObject(i);
-                    EquippableVG g = new EquippableVG(o);
-                    addVG(g);
+                    goods.add(new EquippableVG(o));
                 }
             }
 
@@ -333,8 +459,7 @@ public class StoreInfo {
                 JSONArray paGoods = virtualGoods.getJSONArray(JSONConsts.STORE_GOODS_PA);
                 for (int i=0; i<paGoods.length(); i++){
                     JSONObject o = paGoods.getJSONObject(i);
-                    SingleUsePackVG g = new SingleUsePackVG(o);
-                    addVG(g);
+                    goods.add(new SingleUsePackVG(o));
                 }
             }
 
@@ -343,15 +468,7 @@ public class StoreInfo {
                 JSONArray upGoods = virtualGoods.getJSONArray(JSONConsts.STORE_GOODS_UP);
                 for (int i=0; i<upGoods.length(); i++){
                     JSONObject o = upGoods.getJSONObject(i);
-                    UpgradeVG g = new UpgradeVG(o);
-                    addVG(g);
-
-                    List<UpgradeVG> upgrades = mGoodsUpgrades.get(g.getGoodItemId());
-                    if (upgrades == null) {
-                        upgrades = new ArrayList<UpgradeVG>();
-                        mGoodsUpgrades.put(g.getGoodItemId(), upgrades);
-                    }
-                    upgrades.add(g);
+                    goods.add(new UpgradeVG(o));
                 }
             }
 
@@ -362,49 +479,19 @@ public class StoreInfo {
             JSONArray virtualCategories = jsonObject.getJSONArray(JSONConsts.STORE_CATEGORIES);
             for(int i=0; i<virtualCategories.length(); i++){
                 JSONObject o = virtualCategories.getJSONObject(i);
-                VirtualCategory category = new VirtualCategory(o);
-                mCategories.add(category);
-                for(String goodItemId : category.getGoodsItemIds()) {
-                    mGoodsCategories.put(goodItemId, category);
-                }
+                categories.add(new VirtualCategory(o));
             }
         }
 
         if (jsonObject.has(JSONConsts.STORE_NONCONSUMABLES)) {
-            JSONArray nonConsumables = jsonObject.getJSONArray(JSONConsts.STORE_NONCONSUMABLES);
-            for (int i=0; i<nonConsumables.length(); i++){
-                JSONObject o = nonConsumables.getJSONObject(i);
-                NonConsumableItem non = new NonConsumableItem(o);
-                mNonConsumables.add(non);
-
-                mVirtualItems.put(non.getItemId(), non);
-
-                PurchaseType purchaseType = non.getPurchaseType();
-                if (purchaseType instanceof PurchaseWithMarket) {
-                    mPurchasableItems.put(((PurchaseWithMarket) purchaseType)
-                            .getMarketItem().getProductId(), non);
-                }
+            JSONArray nonConsArr = jsonObject.getJSONArray(JSONConsts.STORE_NONCONSUMABLES);
+            for (int i=0; i<nonConsArr.length(); i++){
+                JSONObject o = nonConsArr.getJSONObject(i);
+                nonConsumables.add(new NonConsumableItem(o));
             }
         }
-    }
 
-    /**
-     * Adds the given virtual good to <code>StoreInfo</code>'s <code>mGoods</code>,
-     * <code>mVirtualItems</code>, and if the good has purchase type <code>PurchaseWithMarket</code>
-     * then it is also added to <code>mPurchasableItems</code>.
-     *
-     * @param g virtual good to be added
-     */
-    private static void addVG(VirtualGood g) {
-        mGoods.add(g);
-
-        mVirtualItems.put(g.getItemId(), g);
-
-        PurchaseType purchaseType = g.getPurchaseType();
-        if (purchaseType instanceof PurchaseWithMarket) {
-            mPurchasableItems.put(((PurchaseWithMarket) purchaseType)
-                    .getMarketItem().getProductId(), g);
-        }
+        initializeWith(currencies, currencyPacks, goods, categories, nonConsumables);
     }
 
     /**
@@ -413,14 +500,21 @@ public class StoreInfo {
      * @return a <code>JSONObject</code> representation of <code>StoreInfo</code>.
      */
     public static JSONObject toJSONObject(){
+        return toJSONObject(materializedSnapshot());
+    }
+
+    /**
+     * Converts the given snapshot of the metadata to a <code>JSONObject</code>.
+     */
+    private static JSONObject toJSONObject(CatalogSnapshot snapshot) {
 
         JSONArray currencies = new JSONArray();
-        for(VirtualCurrency c : mCurrencies){
+        for(VirtualCurrency c : snapshot.getCurrencies()){
             currencies.put(c.toJSONObject());
         }
 
         JSONArray currencyPacks = new JSONArray();
-        for(VirtualCurrencyPack pack : mCurrencyPacks){
+        for(VirtualCurrencyPack pack : snapshot.getCurrencyPacks()){
             currencyPacks.put(pack.toJSONObject());
         }
 
@@ -430,7 +524,7 @@ public class StoreInfo {
         JSONArray eqGoods = new JSONArray();
         JSONArray paGoods = new JSONArray();
         JSONArray upGoods = new JSONArray();
-        for(VirtualGood good : mGoods){
+        for(VirtualGood good : snapshot.getGoods()){
             if (good instanceof SingleUseVG) {
                 suGoods.put(good.toJSONObject());
             } else if (good instanceof UpgradeVG) {
@@ -446,12 +540,12 @@ public class StoreInfo {
 
 
         JSONArray categories = new JSONArray();
-        for (VirtualCategory cat : mCategories){
+        for (VirtualCategory cat : snapshot.getCategories()){
             categories.put(cat.toJSONObject());
         }
 
         JSONArray nonConsumableItems = new JSONArray();
-        for(NonConsumableItem non : mNonConsumables){
+        for(NonConsumableItem non : snapshot.getNonConsumables()){
             nonConsumableItems.put(non.toJSONObject());
         }
 
@@ -476,107 +570,116 @@ public class StoreInfo {
     }
 
     /**
-     * Saves the store's metadata in the database as JSON.
+     * Saves the store's metadata in the database.
+     * The metadata is saved in the binary catalog format (see {@link CatalogWriter}). If it can't
+     * be encoded in that format it's saved as JSON.
      */
     public static void save() {
-        String store_json = toJSONObject().toString();
-        StoreUtils.LogDebug(TAG, "saving StoreInfo to DB. json is: " + store_json);
-        String key = KeyValDatabase.keyMetaStoreInfo();
-        StorageManager.getKeyValueStorage().setValue(key, store_json);
+        synchronized (mSaveLock) {
+            CatalogSnapshot snapshot = materializedSnapshot();
+
+            String val;
+            try {
+                byte[] catalog = CatalogWriter.write(snapshot.getCurrencies(),
+                        snapshot.getCurrencyPacks(), snapshot.getGoods(),
+                        snapshot.getCategories(), snapshot.getNonConsumables());
+                val = Base64.encode(catalog);
+                StoreUtils.LogDebug(TAG, "saving StoreInfo to DB. catalog size is: "
+                        + catalog.length + " bytes");
+            } catch (IOException e) {
+                StoreUtils.LogError(TAG, "Couldn't encode the metadata catalog ("
+                        + e.getMessage() + "). Saving it as json.");
+                val = toJSONObject(snapshot).toString();
+                StoreUtils.LogDebug(TAG, "saving StoreInfo to DB. json is: " + val);
+            }
+            String key = KeyValDatabase.keyMetaStoreInfo();
+            KeyValueStorage storage = StorageManager.getKeyValueStorage();
+            KeyValueStorage.Batch batch = storage.batch();
+            try {
+                storage.setValue(key, val);
+
+                // the items that were saved on their own are part of the saved catalog now
+                if (mSavedItemIds == null || !mSavedItemIds.isEmpty()) {
+                    if (mSavedItemIds != null) {
+                        for (String itemId : mSavedItemIds) {
+                            storage.deleteKeyValue(KeyValDatabase.keyMetaStoreInfoItem(itemId));
+                        }
+                    }
+                    storage.deleteKeyValue(KeyValDatabase.keyMetaStoreInfoManifest());
+                }
+                storage.deleteKeyValue(KeyValDatabase.keyMetaStoreInfoOutdated());
+                batch.setSuccessful();
+            } finally {
+                batch.end();
+            }
+
+            // items can only be saved on their own on top of a binary catalog
+            mSavedItemIds = val.startsWith("{") ? null : new LinkedHashSet<String>();
+        }
     }
 
     /**
-     * Replaces the given virtual item, and then saves the store's metadata.
+     * Replaces the given virtual item, and then saves it.
      *
      * @param virtualItem the virtual item to replace
+     * @see #save(Collection)
      */
     public static void save(VirtualItem virtualItem) {
-        replaceVirtualItem(virtualItem);
-        save();
+        save(Collections.singletonList(virtualItem));
     }
 
     /**
-     * Replaces an old virtual item with a new one by doing the following:
-     * 1. Determines the type of the given virtual item.
-     * 2. Looks for the given virtual item in the relevant list, according to its type.
-     * 3. If found, removes it.
-     * 4. Adds the given virtual item.
+     * Replaces the given virtual items, and then saves them.
+     * Only the given items are written to the database (each as a record of its own, listed in a
+     * small manifest), rather than all of the store's metadata. Once there are more than
+     * <code>MAX_SAVED_ITEMS</code> such records they're merged back into the metadata by a full
+     * {@link #save()}.
      *
-     * @param virtualItem the virtual item that replaces the old one if exists.
+     * @param virtualItems the virtual items to replace
      */
-    public static void replaceVirtualItem(VirtualItem virtualItem) {
-        mVirtualItems.put(virtualItem.getItemId(), virtualItem);
-
-        if (virtualItem instanceof VirtualCurrency) {
-            for(int i=0; i<mCurrencies.size(); i++) {
-                if (mCurrencies.get(i).getItemId().equals(virtualItem.getItemId())) {
-                    mCurrencies.remove(i);
-                    break;
-                }
-            }
-            mCurrencies.add((VirtualCurrency)virtualItem);
+    public static void save(Collection<? extends VirtualItem> virtualItems) {
+        if (virtualItems.isEmpty()) {
+            return;
         }
 
-        if (virtualItem instanceof VirtualCurrencyPack) {
-            VirtualCurrencyPack vcp = (VirtualCurrencyPack)virtualItem;
-            PurchaseType purchaseType = vcp.getPurchaseType();
-            if (purchaseType instanceof PurchaseWithMarket) {
-                mPurchasableItems.put(((PurchaseWithMarket) purchaseType).getMarketItem()
-                        .getProductId(), vcp);
-            }
-
-            for(int i=0; i<mCurrencyPacks.size(); i++) {
-                if (mCurrencyPacks.get(i).getItemId().equals(vcp.getItemId())) {
-                    mCurrencyPacks.remove(i);
-                    break;
-                }
+        // the manifest is read, modified and written as a whole, so saves can't overlap
+        synchronized (mSaveLock) {
+            replaceVirtualItems(virtualItems);
+            if (!saveItems(virtualItems, false)) {
+                save();
             }
-            mCurrencyPacks.add(vcp);
         }
+    }
 
-        if (virtualItem instanceof VirtualGood) {
-            VirtualGood vg = (VirtualGood)virtualItem;
-
-            if (vg instanceof UpgradeVG) {
-                List<UpgradeVG> upgrades = mGoodsUpgrades.get(((UpgradeVG) vg).getGoodItemId());
-                if (upgrades == null) {
-                    upgrades = new ArrayList<UpgradeVG>();
-                    mGoodsUpgrades.put(((UpgradeVG) vg).getGoodItemId(), upgrades);
-                }
-                upgrades.add((UpgradeVG) vg);
-            }
-
-            PurchaseType purchaseType = vg.getPurchaseType();
-            if (purchaseType instanceof PurchaseWithMarket) {
-                mPurchasableItems.put(((PurchaseWithMarket) purchaseType).getMarketItem()
-                        .getProductId(), vg);
-            }
-
-            for(int i=0; i<mGoods.size(); i++) {
-                if (mGoods.get(i).getItemId().equals(vg.getItemId())) {
-                    mGoods.remove(i);
-                    break;
-                }
-            }
-            mGoods.add(vg);
-        }
-
-        if (virtualItem instanceof NonConsumableItem) {
-            NonConsumableItem non = (NonConsumableItem) virtualItem;
-
-            PurchaseType purchaseType = non.getPurchaseType();
-            if (purchaseType instanceof PurchaseWithMarket) {
-                mPurchasableItems.put(((PurchaseWithMarket) purchaseType).getMarketItem()
-                        .getProductId(), non);
-            }
+    /**
+     * Replaces an old virtual item with a new one by doing the following:
+     * 1. Determines the type of the given virtual item.
+     * 2. Looks up the position of the old virtual item in the relevant list, according to its
+     *    type.
+     * 3. If found, puts the given virtual item in its place. Otherwise, adds the given virtual
+     *    item to the end of the list.
+     * 4. Updates the hashes of purchasable items and of good-upgrades.
+     * The changes are made to a copy of the metadata, which then replaces the current one at
+     * once, so threads that read the metadata at the same time never see half of a change.
+     *
+     * @param virtualItem the virtual item that replaces the old one if exists.
+     */
+    public static void replaceVirtualItem(VirtualItem virtualItem) {
+        replaceVirtualItems(Collections.singletonList(virtualItem));
+    }
 
-            for(int i=0; i<mNonConsumables.size(); i++) {
-                if (mNonConsumables.get(i).getItemId().equals(non.getItemId())) {
-                    mNonConsumables.remove(i);
-                    break;
-                }
-            }
-            mNonConsumables.add(non);
+    /**
+     * Replaces the given virtual items at once. See {@link #replaceVirtualItem(VirtualItem)}.
+     *
+     * @param virtualItems the virtual items that replace the old ones if exist.
+     */
+    public static void replaceVirtualItems(Collection<? extends VirtualItem> virtualItems) {
+        CatalogSnapshot snapshot;
+        do {
+            snapshot = mSnapshot.get();
+        } while (!mSnapshot.compareAndSet(snapshot, snapshot.withItems(virtualItems)));
+        for (VirtualItem virtualItem : virtualItems) {
+            ItemHandles.register(virtualItem);
         }
     }
 
@@ -589,67 +692,186 @@ public class StoreInfo {
     private static void initializeWithStoreAssets(IStoreAssets storeAssets) {
         // fall-back here if the json doesn't exist,
         // we load the store from the given {@link IStoreAssets}.
-        mCurrencies = Arrays.asList(storeAssets.getCurrencies());
-        mCurrencyPacks = Arrays.asList(storeAssets.getCurrencyPacks());
-        mGoods = Arrays.asList(storeAssets.getGoods());
-        mCategories = Arrays.asList(storeAssets.getCategories());
-        mNonConsumables = Arrays.asList(storeAssets.getNonConsumableItems());
+        initializeWith(Arrays.asList(storeAssets.getCurrencies()),
+                Arrays.asList(storeAssets.getCurrencyPacks()),
+                Arrays.asList(storeAssets.getGoods()),
+                Arrays.asList(storeAssets.getCategories()),
+                Arrays.asList(storeAssets.getNonConsumableItems()));
+
+        save();
+    }
 
-        mVirtualItems = new HashMap<String, VirtualItem>();
-        mPurchasableItems = new HashMap<String, PurchasableVirtualItem>();
-        mGoodsCategories = new HashMap<String, VirtualCategory>();
-        mGoodsUpgrades = new HashMap<String, List<UpgradeVG>>();
+    /**
+     * Updates the metadata that was loaded from the database to a new version of
+     * <code>IStoreAssets</code>. Items that didn't change are kept as they are, and the ones that
+     * did are listed in a <code>StoreMetadataChangedEvent</code>.
+     *
+     * @param storeAssets the new version of the game economy
+     */
+    private static void updateWithStoreAssets(IStoreAssets storeAssets) {
+        CatalogDiff diff = new CatalogDiff(materializedSnapshot(),
+                Arrays.asList(storeAssets.getCurrencies()),
+                Arrays.asList(storeAssets.getCurrencyPacks()),
+                Arrays.asList(storeAssets.getGoods()),
+                Arrays.asList(storeAssets.getCategories()),
+                Arrays.asList(storeAssets.getNonConsumableItems()));
+        ItemHandles.register(diff.getSnapshot());
+
+        // saving also clears the mark that the metadata is outdated
+        synchronized (mSaveLock) {
+            mSnapshot.set(diff.getSnapshot());
+            if (!diff.isAppendOnly() || !saveItems(diff.getAddedAndChangedItems(), true)) {
+                save();
+            }
+        }
 
-        for(VirtualCurrency vi : mCurrencies) {
-            mVirtualItems.put(vi.getItemId(), vi);
+        if (diff.isEmpty()) {
+            StoreUtils.LogDebug(TAG, "the store assets' version changed, but the metadata didn't.");
+            return;
         }
+        StoreMetadataChangedEvent event = diff.toEvent();
+        StoreUtils.LogDebug(TAG, "updated the metadata to version " + storeAssets.getVersion()
+                + ". added: " + event.getAddedItemIds() + ", removed: "
+                + event.getRemovedItemIds() + ", changed: " + event.getChangedItemIds());
+        BusProvider.getInstance().post(event);
+    }
 
-        for(VirtualCurrencyPack vi : mCurrencyPacks) {
-            mVirtualItems.put(vi.getItemId(), vi);
+    /**
+     * Writes the given items to the database as records of their own, on top of the saved
+     * catalog, and adds them to the manifest of saved items. Must be called with
+     * <code>mSaveLock</code> held.
+     *
+     * @param virtualItems the items to write
+     * @param clearOutdated true to also clear the mark that the metadata is outdated
+     * @return false if the items can't be saved on their own and the whole metadata needs to be
+     *     saved instead
+     */
+    private static boolean saveItems(Collection<? extends VirtualItem> virtualItems,
+                                     boolean clearOutdated) {
+        if (mSavedItemIds == null) {
+            return false;
+        }
 
-            PurchaseType purchaseType = vi.getPurchaseType();
-            if (purchaseType instanceof PurchaseWithMarket) {
-                mPurchasableItems.put(((PurchaseWithMarket) purchaseType).getMarketItem()
-                        .getProductId(), vi);
+        LinkedHashSet<String> savedItemIds = new LinkedHashSet<String>(mSavedItemIds);
+        LinkedHashMap<String, String> records = new LinkedHashMap<String, String>();
+        for (VirtualItem virtualItem : virtualItems) {
+            String itemId = virtualItem.getItemId();
+            savedItemIds.add(itemId);
+            if (savedItemIds.size() > MAX_SAVED_ITEMS) {
+                return false;
+            }
+            try {
+                records.put(KeyValDatabase.keyMetaStoreInfoItem(itemId),
+                        Base64.encode(CatalogWriter.writeItem(virtualItem)));
+            } catch (IOException e) {
+                StoreUtils.LogDebug(TAG, "Couldn't encode " + itemId + " (" + e.getMessage()
+                        + "). Saving all of the metadata.");
+                return false;
             }
         }
 
-        for(VirtualGood vi : mGoods) {
-            mVirtualItems.put(vi.getItemId(), vi);
-
-            if (vi instanceof UpgradeVG) {
-                List<UpgradeVG> upgrades = mGoodsUpgrades.get(((UpgradeVG) vi).getGoodItemId());
-                if (upgrades == null) {
-                    upgrades = new ArrayList<UpgradeVG>();
-                    mGoodsUpgrades.put(((UpgradeVG) vi).getGoodItemId(), upgrades);
-                }
-                upgrades.add((UpgradeVG) vi);
+        KeyValueStorage storage = StorageManager.getKeyValueStorage();
+        KeyValueStorage.Batch batch = storage.batch();
+        try {
+            for (Map.Entry<String, String> record : records.entrySet()) {
+                storage.setValue(record.getKey(), record.getValue());
             }
-
-            PurchaseType purchaseType = vi.getPurchaseType();
-            if (purchaseType instanceof PurchaseWithMarket) {
-                mPurchasableItems.put(((PurchaseWithMarket) purchaseType).getMarketItem()
-                        .getProductId(), vi);
+            if (savedItemIds.size() != mSavedItemIds.size()) {
+                storage.setValue(KeyValDatabase.keyMetaStoreInfoManifest(),
+                        new JSONArray(savedItemIds).toString());
+            }
+            if (clearOutdated) {
+                storage.deleteKeyValue(KeyValDatabase.keyMetaStoreInfoOutdated());
             }
+            batch.setSuccessful();
+        } finally {
+            batch.end();
         }
+        mSavedItemIds = savedItemIds;
+        return true;
+    }
+
+    /**
+     * Replaces the store's metadata with a snapshot of the given items.
+     *
+     * @param currencies virtual currencies
+     * @param currencyPacks virtual currency packs
+     * @param goods virtual goods
+     * @param categories virtual categories
+     * @param nonConsumables non-consumable items
+     */
+    private static void initializeWith(List<VirtualCurrency> currencies,
+                                       List<VirtualCurrencyPack> currencyPacks,
+                                       List<VirtualGood> goods,
+                                       List<VirtualCategory> categories,
+                                       List<NonConsumableItem> nonConsumables) {
+        CatalogSnapshot snapshot = CatalogSnapshot.of(currencies, currencyPacks, goods, categories,
+                nonConsumables);
+        ItemHandles.register(snapshot);
+        mSnapshot.set(snapshot);
+    }
 
-        for(NonConsumableItem vi : mNonConsumables) {
-            mVirtualItems.put(vi.getItemId(), vi);
 
-            PurchaseType purchaseType = vi.getPurchaseType();
-            if (purchaseType instanceof PurchaseWithMarket) {
-                mPurchasableItems.put(((PurchaseWithMarket) purchaseType).getMarketItem()
-                        .getProductId(), vi);
+    /**
+     * Applies the items that were saved on their own by {@link #save(VirtualItem)} on top of the
+     * catalog that was just loaded, and remembers which items those are.
+     */
+    private static void loadSavedItems() {
+        synchronized (mSaveLock) {
+            KeyValueStorage storage = StorageManager.getKeyValueStorage();
+            LinkedHashSet<String> savedItemIds = new LinkedHashSet<String>();
+
+            String manifest = storage.getValue(KeyValDatabase.keyMetaStoreInfoManifest());
+            if (!TextUtils.isEmpty(manifest)) {
+                try {
+                    JSONArray itemIds = new JSONArray(manifest);
+                    List<String> keys = new ArrayList<String>();
+                    for (int i = 0; i < itemIds.length(); i++) {
+                        savedItemIds.add(itemIds.getString(i));
+                        keys.add(KeyValDatabase.keyMetaStoreInfoItem(itemIds.getString(i)));
+                    }
+
+                    Map<String, String> records = storage.getValues(keys);
+                    List<VirtualItem> savedItems = new ArrayList<VirtualItem>();
+                    for (String itemId : savedItemIds) {
+                        String record = records.get(KeyValDatabase.keyMetaStoreInfoItem(itemId));
+                        if (TextUtils.isEmpty(record)) {
+                            continue;
+                        }
+                        try {
+                            savedItems.add(new CatalogReader(Base64.decode(record)).readItem(0));
+                        } catch (Exception e) {
+                            StoreUtils.LogError(TAG, "Couldn't decode the saved item " + itemId
+                                    + ": " + e.getMessage());
+                        }
+                    }
+                    replaceVirtualItems(savedItems);
+                } catch (JSONException e) {
+                    StoreUtils.LogError(TAG, "Couldn't parse the manifest of saved items.");
+                }
             }
+
+            mSavedItemIds = savedItemIds;
         }
+    }
 
-        for(VirtualCategory category : mCategories) {
-            for(String goodItemId : category.getGoodsItemIds()) {
-                mGoodsCategories.put(goodItemId, category);
+    /**
+     * Retrieves the current snapshot of the metadata, after replacing it with one in which all
+     * of the items are constructed if it's lazy (see {@link StoreConfig#lazyCatalog}).
+     *
+     * @return a snapshot that isn't lazy
+     */
+    private static CatalogSnapshot materializedSnapshot() {
+        while (true) {
+            CatalogSnapshot snapshot = mSnapshot.get();
+            if (!snapshot.isLazy()) {
+                return snapshot;
+            }
+            CatalogSnapshot materialized = snapshot.materialize();
+            if (mSnapshot.compareAndSet(snapshot, materialized)) {
+                return materialized;
             }
         }
-
-        save();
     }
 
 
@@ -657,30 +879,15 @@ public class StoreInfo {
 
     private static final String TAG = "SOOMLA StoreInfo"; //used for Log messages
 
-    // convenient hash of virtual items
-    private static HashMap<String, VirtualItem> mVirtualItems;
-
-    // convenient hash of purchasable virtual items
-    private static HashMap<String, PurchasableVirtualItem> mPurchasableItems;
-
-    // convenient hash of goods-categories
-    private static HashMap<String, VirtualCategory> mGoodsCategories;
-
-    // convenient hash of good-upgrades
-    private static HashMap<String, List<UpgradeVG>> mGoodsUpgrades;
-
-    // list of virtual currencies
-    private static List<VirtualCurrency> mCurrencies;
-
-    // list of currency-packs
-    private static List<VirtualCurrencyPack> mCurrencyPacks;
+    // the store's metadata. replaced as a whole whenever it changes, see CatalogSnapshot.
+    private static final AtomicReference<CatalogSnapshot> mSnapshot =
+            new AtomicReference<CatalogSnapshot>();
 
-    // list of virtual goods
-    private static List<VirtualGood> mGoods;
+    private static final int MAX_SAVED_ITEMS = 64;
 
-    // list of virtul categories
-    private static List<VirtualCategory> mCategories;
+    // items saved on their own on top of the saved catalog, or null if that's not possible
+    private static volatile LinkedHashSet<String> mSavedItemIds;
 
-    // list of non consumable items
-    private static List<NonConsumableItem> mNonConsumables;
-}
\ No newline at end of file
+    // held while the saved catalog, the saved items or their manifest are read or written
+    private static final Object mSaveLock = new Object();
+}
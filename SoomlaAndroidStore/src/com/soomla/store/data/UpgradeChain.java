@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.store.data;
+
+import android.text.TextUtils;
+
+import com.soomla.store.StoreUtils;
+import com.soomla.store.domain.virtualGoods.UpgradeVG;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The upgrades of a single virtual good, ordered by level. The chain is built once from the
+ * <code>prevItemId</code>/<code>nextItemId</code> links of the upgrades, so that finding the
+ * level of an upgrade, or the upgrade of a level, doesn't walk the links.
+ *
+ * The chain starts at the upgrade that has no <code>prevItemId</code> and follows the
+ * <code>nextItemId</code>s. If the links are broken (more than one first upgrade, a cycle, or a
+ * link to an upgrade that doesn't exist) an error is logged and the chain holds the upgrades
+ * reachable from the first upgrade, up to the broken link.
+ */
+final class UpgradeChain {
+
+    /**
+     * Constructor
+     * Orders the given upgrades by level.
+     *
+     * @param goodItemId id of the virtual good that the upgrades belong to
+     * @param upgrades the upgrades of the virtual good, in any order
+     */
+    UpgradeChain(String goodItemId, List<UpgradeVG> upgrades) {
+        HashMap<String, UpgradeVG> upgradesById = new HashMap<String, UpgradeVG>();
+        UpgradeVG first = null;
+        for (UpgradeVG upgradeVG : upgrades) {
+            upgradesById.put(upgradeVG.getItemId(), upgradeVG);
+            if (TextUtils.isEmpty(upgradeVG.getPrevItemId())) {
+                if (first == null) {
+                    first = upgradeVG;
+                } else {
+                    StoreUtils.LogError(TAG, "The upgrades of " + goodItemId + " have more than "
+                            + "one first upgrade: " + first.getItemId() + " and "
+                            + upgradeVG.getItemId());
+                }
+            }
+        }
+        if (first == null && !upgrades.isEmpty()) {
+            StoreUtils.LogError(TAG, "The upgrades of " + goodItemId + " have no first upgrade. "
+                    + "Their chain is a cycle.");
+        }
+
+        mLevels = new HashMap<String, Integer>();
+        List<UpgradeVG> chain = new ArrayList<UpgradeVG>(upgrades.size());
+        UpgradeVG upgradeVG = first;
+        while (upgradeVG != null) {
+            if (mLevels.containsKey(upgradeVG.getItemId())) {
+                StoreUtils.LogError(TAG, "The upgrades of " + goodItemId + " have a cycle at "
+                        + upgradeVG.getItemId());
+                break;
+            }
+            chain.add(upgradeVG);
+            mLevels.put(upgradeVG.getItemId(), chain.size());
+
+            String nextItemId = upgradeVG.getNextItemId();
+            if (TextUtils.isEmpty(nextItemId)) {
+                break;
+            }
+            upgradeVG = upgradesById.get(nextItemId);
+            if (upgradeVG == null) {
+                StoreUtils.LogError(TAG, "The upgrade after " + chain.get(chain.size() - 1)
+                        .getItemId() + " of " + goodItemId + " doesn't exist: " + nextItemId);
+            }
+        }
+        if (chain.size() < upgradesById.size()) {
+            StoreUtils.LogError(TAG, (upgradesById.size() - chain.size()) + " of the upgrades of "
+                    + goodItemId + " can't be reached from its first upgrade.");
+        }
+
+        mUpgrades = chain.toArray(new UpgradeVG[chain.size()]);
+    }
+
+
+    /** Setters and Getters **/
+
+    /**
+     * Retrieves the level of the upgrade with the given <code>upgradeItemId</code>.
+     *
+     * @param upgradeItemId id of the upgrade
+     * @return the level of the upgrade, from 1 to <code>size()</code>, or 0 if it's not in the
+     *     chain
+     */
+    int getLevel(String upgradeItemId) {
+        Integer level = mLevels.get(upgradeItemId);
+        return level != null ? level : 0;
+    }
+
+    /**
+     * Retrieves the upgrade of the given level.
+     *
+     * @param level the level, from 1 to <code>size()</code>
+     * @return the upgrade of the given level, or null if there's no such level
+     */
+    UpgradeVG getUpgrade(int level) {
+        return level >= 1 && level <= mUpgrades.length ? mUpgrades[level - 1] : null;
+    }
+
+    int size() {
+        return mUpgrades.length;
+    }
+
+
+    /** Private Members **/
+
+    private static final String TAG = "SOOMLA UpgradeChain"; //used for Log messages
+
+    // the upgrades by level: the upgrade of level i is at index i - 1
+    private final UpgradeVG[] mUpgrades;
+
+    // the level of every upgrade by its itemId
+    private final HashMap<String, Integer> mLevels;
+}
@@ -17,7 +17,6 @@
 package com.soomla.store.data;
 
 
-import com.soomla.store.BusProvider;
 import com.soomla.store.domain.VirtualItem;
 import com.soomla.store.domain.virtualCurrencies.VirtualCurrency;
 import com.soomla.store.events.CurrencyBalanceChangedEvent;
@@ -47,7 +46,7 @@ public class VirtualCurrencyStorage extends VirtualItemStorage{
      */
     @Override
     protected void postBalanceChangeEvent(VirtualItem item, int balance, int amountAdded) {
-        BusProvider.getInstance().post(new CurrencyBalanceChangedEvent((VirtualCurrency) item,
-                balance, amountAdded));
+        StorageManager.getKeyValueStorage().post(CurrencyBalanceChangedEvent.obtain(
+                (VirtualCurrency) item, balance, amountAdded));
     }
 }
@@ -16,7 +16,6 @@
 
 package com.soomla.store.data;
 
-import com.soomla.store.BusProvider;
 import com.soomla.store.StoreUtils;
 import com.soomla.store.domain.VirtualItem;
 import com.soomla.store.domain.virtualGoods.EquippableVG;
@@ -65,7 +64,7 @@ public class VirtualGoodsStorage extends VirtualItemStorage{
         StorageManager.getKeyValueStorage().deleteKeyValue(key);
 
         if (notify) {
-            BusProvider.getInstance().post(new GoodUpgradeEvent(good, null));
+            StorageManager.getKeyValueStorage().post(new GoodUpgradeEvent(good, null));
         }
     }
 
@@ -102,7 +101,7 @@ public class VirtualGoodsStorage extends VirtualItemStorage{
         StorageManager.getKeyValueStorage().setValue(key, upItemId);
 
         if (notify) {
-            BusProvider.getInstance().post(new GoodUpgradeEvent(good, upgradeVG));
+            StorageManager.getKeyValueStorage().post(new GoodUpgradeEvent(good, upgradeVG));
         }
     }
 
@@ -213,8 +212,8 @@ public class VirtualGoodsStorage extends VirtualItemStorage{
      */
     @Override
     protected void postBalanceChangeEvent(VirtualItem item, int balance, int amountAdded) {
-        BusProvider.getInstance().post(new GoodBalanceChangedEvent((VirtualGood) item,
-                balance, amountAdded));
+        StorageManager.getKeyValueStorage().post(
+                GoodBalanceChangedEvent.obtain((VirtualGood) item, balance, amountAdded));
     }
 
     /**
@@ -229,12 +228,12 @@ public class VirtualGoodsStorage extends VirtualItemStorage{
         if (equip) {
             StorageManager.getKeyValueStorage().setValue(key, "");
             if (notify) {
-                BusProvider.getInstance().post(new GoodEquippedEvent(good));
+                StorageManager.getKeyValueStorage().post(GoodEquippedEvent.obtain(good));
             }
         } else {
             StorageManager.getKeyValueStorage().deleteKeyValue(key);
             if (notify) {
-                BusProvider.getInstance().post(new GoodUnEquippedEvent(good));
+                StorageManager.getKeyValueStorage().post(GoodUnEquippedEvent.obtain(good));
             }
         }
     }
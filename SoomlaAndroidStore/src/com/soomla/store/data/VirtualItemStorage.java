@@ -24,9 +24,22 @@ package com.soomla.store.data;
 
 import com.soomla.store.StoreUtils;
 import com.soomla.store.domain.VirtualItem;
+import com.soomla.store.exceptions.VirtualItemNotFoundException;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class is an abstract definition of a Virtual Item Storage.
+ *
+ * Every operation also has an overload that takes the handle of the item (see
+ * {@link StoreInfo#getItemHandle(String)}) instead of the item. The balances are cached in an
+ * array indexed by the handle, so reading a balance by its handle doesn't allocate anything, and
+ * doesn't lock anything if the balance is cached.
+ *
+ * Changes to a balance read it, modify it and write it back inside a
+ * <code>KeyValueStorage</code> batch, which is what keeps concurrent changes from overwriting
+ * each other. The storage itself holds no lock while it calls the <code>KeyValueStorage</code>.
  */
 public abstract class VirtualItemStorage {
 
@@ -40,17 +53,37 @@ public abstract class VirtualItemStorage {
         StoreUtils.LogDebug(mTag, "fetching balance for virtual item with itemId: "
                 + item.getItemId());
 
-        String itemId = item.getItemId();
-        String key = keyBalance(itemId);
-        String val = StorageManager.getKeyValueStorage().getValue(key);
+        int balance = readBalance(item, ItemHandles.get(item.getItemId()));
+
+        StoreUtils.LogDebug(mTag, "the balance for " + item.getItemId() + " is " + balance);
+
+        return balance;
+    }
+
+    /**
+     * Retrieves the balance of the virtual item with the given handle.
+     *
+     * @param handle the handle of the required virtual item
+     * @return the balance of the required virtual item
+     */
+    public int getBalance(int handle) {
+        KeyValueStorage storage = StorageManager.getKeyValueStorage();
+        int generation = storage.getCacheGeneration();
+        AtomicLong cache = cacheOf(handle);
+        long cached = cache.get();
+        if (generationOf(cached) == generation) {
+            return balanceOf(cached);
+        }
+
+        String val = storage.getValue(keyBalance(handle));
 
         int balance = 0;
         if (val != null) {
             balance = Integer.parseInt(val);
         }
 
-        StoreUtils.LogDebug(mTag, "the balance for " + item.getItemId() + " is " + balance);
-
+        // fails if a write cached a newer balance in the meantime
+        cache.compareAndSet(cached, pack(balance, generation));
         return balance;
     }
 
@@ -77,23 +110,20 @@ public abstract class VirtualItemStorage {
     public int setBalance(VirtualItem item, int balance, boolean notify) {
         StoreUtils.LogDebug(mTag, "setting balance " + balance + " to " + item.getName() + ".");
 
-        int oldBalance = getBalance(item);
-        if (oldBalance == balance) {
-            return balance;
-        }
-
-        String itemId = item.getItemId();
-
-        String balanceStr = "" + balance;
-        String key = keyBalance(itemId);
-
-        StorageManager.getKeyValueStorage().setValue(key, balanceStr);
-
-        if (notify) {
-            postBalanceChangeEvent(item, balance, 0);
-        }
+        return setBalance(item, ItemHandles.get(item.getItemId()), balance, notify);
+    }
 
-        return balance;
+    /**
+     * Sets the balance of the virtual item with the given handle to be the given balance, and if
+     * notify is true posts the change in the balance to the event bus.
+     *
+     * @param handle the handle of the required virtual item
+     * @param balance the new balance to be set
+     * @param notify if notify is true post balance change event
+     * @return the balance of the required virtual item
+     */
+    public int setBalance(int handle, int balance, boolean notify) {
+        return setBalance(null, handle, balance, notify);
     }
 
     /**
@@ -119,21 +149,20 @@ public abstract class VirtualItemStorage {
     public int add(VirtualItem item, int amount, boolean notify){
         StoreUtils.LogDebug(mTag, "adding " + amount + " " + item.getName());
 
-        String itemId = item.getItemId();
-        int balance = getBalance(item);
-        if (balance < 0) { /* in case the user "adds" a negative value */
-            balance = 0;
-            amount = 0;
-        }
-        String balanceStr = "" + (balance + amount);
-        String key = keyBalance(itemId);
-        StorageManager.getKeyValueStorage().setValue(key, balanceStr);
-
-        if (notify) {
-            postBalanceChangeEvent(item, balance+amount, amount);
-        }
+        return add(item, ItemHandles.get(item.getItemId()), amount, notify);
+    }
 
-        return balance + amount;
+    /**
+     * Adds the given amount to the balance of the virtual item with the given handle, and if
+     * notify is true posts the change in the balance to the event bus.
+     *
+     * @param handle the handle of the required virtual item
+     * @param amount the amount of items to add
+     * @param notify if true posts balance change event
+     * @return new balance
+     */
+    public int add(int handle, int amount, boolean notify) {
+        return add(null, handle, amount, notify);
     }
 
     /**
@@ -159,21 +188,20 @@ public abstract class VirtualItemStorage {
     public int remove(VirtualItem item, int amount, boolean notify){
         StoreUtils.LogDebug(mTag, "Removing " + amount + " " + item.getName() + ".");
 
-        String itemId = item.getItemId();
-        int balance = getBalance(item) - amount;
-        if (balance < 0) {
-            balance = 0;
-            amount = 0;
-        }
-        String balanceStr = "" + balance;
-        String key = keyBalance(itemId);
-        StorageManager.getKeyValueStorage().setValue(key, balanceStr);
-
-        if (notify) {
-            postBalanceChangeEvent(item, balance, -1*amount);
-        }
+        return remove(item, ItemHandles.get(item.getItemId()), amount, notify);
+    }
 
-        return balance;
+    /**
+     * Removes the given amount from the balance of the virtual item with the given handle, and if
+     * notify is true posts the change in the balance to the event bus.
+     *
+     * @param handle the handle of the virtual item to remove the given amount from
+     * @param amount is the amount to remove
+     * @param notify if notify is true post balance change event
+     * @return new balance
+     */
+    public int remove(int handle, int amount, boolean notify) {
+        return remove(null, handle, amount, notify);
     }
 
     /**
@@ -195,7 +223,200 @@ public abstract class VirtualItemStorage {
     protected abstract void postBalanceChangeEvent(VirtualItem item, int balance, int amountAdded);
 
 
+    /** Private functions **/
+
+    private int setBalance(VirtualItem item, int handle, int balance, boolean notify) {
+        KeyValueStorage storage = StorageManager.getKeyValueStorage();
+        KeyValueStorage.Batch batch = storage.batch();
+        try {
+            int oldBalance = readBalance(item, handle);
+            if (oldBalance == balance) {
+                batch.setSuccessful();
+                return balance;
+            }
+
+            writeBalance(storage, item, handle, balance);
+            batch.setSuccessful();
+        } finally {
+            batch.end();
+        }
+
+        if (notify) {
+            postBalanceChangeEvent(item, handle, balance, 0);
+        }
+
+        return balance;
+    }
+
+    private int add(VirtualItem item, int handle, int amount, boolean notify) {
+        int balance;
+        KeyValueStorage storage = StorageManager.getKeyValueStorage();
+        KeyValueStorage.Batch batch = storage.batch();
+        try {
+            balance = readBalance(item, handle);
+            if (balance < 0) { /* in case the user "adds" a negative value */
+                balance = 0;
+                amount = 0;
+            }
+            balance += amount;
+
+            writeBalance(storage, item, handle, balance);
+            batch.setSuccessful();
+        } finally {
+            batch.end();
+        }
+
+        if (notify) {
+            postBalanceChangeEvent(item, handle, balance, amount);
+        }
+
+        return balance;
+    }
+
+    private int remove(VirtualItem item, int handle, int amount, boolean notify) {
+        int balance;
+        KeyValueStorage storage = StorageManager.getKeyValueStorage();
+        KeyValueStorage.Batch batch = storage.batch();
+        try {
+            balance = readBalance(item, handle) - amount;
+            if (balance < 0) {
+                balance = 0;
+                amount = 0;
+            }
+
+            writeBalance(storage, item, handle, balance);
+            batch.setSuccessful();
+        } finally {
+            batch.end();
+        }
+
+        if (notify) {
+            postBalanceChangeEvent(item, handle, balance, -1*amount);
+        }
+
+        return balance;
+    }
+
+    /**
+     * Posts the balance change of the given item, or of the item with the given handle if the
+     * item isn't given.
+     */
+    private void postBalanceChangeEvent(VirtualItem item, int handle, int balance,
+                                        int amountAdded) {
+        if (item == null) {
+            try {
+                item = StoreInfo.getVirtualItem(handle);
+            } catch (VirtualItemNotFoundException e) {
+                StoreUtils.LogError(mTag, "Couldn't post the balance change of an item that isn't "
+                        + "in the metadata anymore: " + ItemHandles.getItemId(handle));
+                return;
+            }
+        }
+        postBalanceChangeEvent(item, balance, amountAdded);
+    }
+
+    /**
+     * Reads the balance of the item with the given handle, or of the given item if the handle is
+     * -1. An item that isn't in the catalog has no handle, so its balance isn't cached.
+     */
+    private int readBalance(VirtualItem item, int handle) {
+        if (handle >= 0) {
+            return getBalance(handle);
+        }
+
+        String val = StorageManager.getKeyValueStorage().getValue(keyBalance(item.getItemId()));
+        return val != null ? Integer.parseInt(val) : 0;
+    }
+
+    /**
+     * Writes the given balance to the <code>KeyValueStorage</code>, and caches it if the item
+     * has a handle. Must be called inside a batch of the given storage.
+     */
+    private void writeBalance(KeyValueStorage storage, VirtualItem item, int handle,
+                              int balance) {
+        if (handle < 0) {
+            storage.setValue(keyBalance(item.getItemId()), "" + balance);
+            return;
+        }
+
+        storage.setValue(keyBalance(handle), "" + balance);
+        cacheOf(handle).set(pack(balance, storage.getCacheGeneration()));
+    }
+
+    /**
+     * Retrieves the key of the balance of the item with the given handle. The keys are built
+     * once per item.
+     */
+    private String keyBalance(int handle) {
+        ensureCapacity(handle);
+        String[] keys = mKeys;
+        String key = keys[handle];
+        if (key == null) {
+            String itemId = ItemHandles.getItemId(handle);
+            if (itemId == null) {
+                throw new IllegalArgumentException("There's no virtual item with handle " + handle);
+            }
+            // threads that race here build the same key
+            key = keyBalance(itemId);
+            keys[handle] = key;
+        }
+        return key;
+    }
+
+    /**
+     * Retrieves the cached balance of the item with the given handle.
+     */
+    private AtomicLong cacheOf(int handle) {
+        ensureCapacity(handle);
+        return mBalances[handle];
+    }
+
+    private void ensureCapacity(int handle) {
+        if (handle < mBalances.length) {
+            return;
+        }
+        synchronized (mGrowLock) {
+            AtomicLong[] balances = mBalances;
+            if (handle < balances.length) {
+                return;
+            }
+            int capacity = Math.max(handle + 1, balances.length * 2);
+            // the cached balances are moved over, so a write to the old array isn't lost
+            AtomicLong[] newBalances = Arrays.copyOf(balances, capacity);
+            for (int i = balances.length; i < capacity; i++) {
+                newBalances[i] = new AtomicLong();
+            }
+            mKeys = Arrays.copyOf(mKeys, capacity);
+            mBalances = newBalances;
+        }
+    }
+
+    /**
+     * Packs a balance and the generation of the <code>KeyValueStorage</code>'s cache it was
+     * cached in into one value, so they're always read and written together.
+     */
+    private static long pack(int balance, int generation) {
+        return ((long) generation << 32) | (balance & 0xFFFFFFFFL);
+    }
+
+    private static int balanceOf(long cached) {
+        return (int) cached;
+    }
+
+    private static int generationOf(long cached) {
+        return (int) (cached >>> 32);
+    }
+
+
     /** Private Members */
 
     protected String mTag = "SOOMLA VirtualItemStorage"; //used for Log messages
+
+    // the balances' keys and cached balances, indexed by item handle. a cached balance is valid
+    // only if it was cached in the current generation of the KeyValueStorage's cache (which
+    // starts at 1, so an empty cache is never valid). the arrays are only replaced, while holding
+    // mGrowLock, when they grow.
+    private volatile String[] mKeys = new String[0];
+    private volatile AtomicLong[] mBalances = new AtomicLong[0];
+    private final Object mGrowLock = new Object();
 }
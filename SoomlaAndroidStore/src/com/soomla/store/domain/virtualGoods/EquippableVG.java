@@ -19,6 +19,7 @@ package com.soomla.store.domain.virtualGoods;
 
 import com.soomla.store.StoreUtils;
 import com.soomla.store.data.JSONConsts;
+import com.soomla.store.data.KeyValueStorage;
 import com.soomla.store.data.StorageManager;
 import com.soomla.store.data.StoreInfo;
 import com.soomla.store.domain.VirtualCategory;
@@ -154,46 +155,53 @@ public class EquippableVG extends LifetimeVG{
     public void equip(boolean notify) throws NotEnoughGoodsException {
         // only if the user has bought this EquippableVG, the EquippableVG is equipped.
         if (StorageManager.getVirtualGoodsStorage().getBalance(this) > 0){
-
-            if (mEquippingModel == EquippingModel.CATEGORY) {
-                VirtualCategory category = null;
-                try {
-                    category = StoreInfo.getCategory(getItemId());
-                } catch (VirtualItemNotFoundException e) {
-                    StoreUtils.LogError(TAG,
-                            "Tried to unequip all other category VirtualGoods but there was no " +
-                            "associated category. virtual good itemId: " + getItemId());
-                    return;
-                }
-
-                for(String goodItemId : category.getGoodsItemIds()) {
-                    EquippableVG equippableVG = null;
+            // unequipping the others and equipping this one are committed together
+            KeyValueStorage.Batch batch = StorageManager.getKeyValueStorage().batch();
+            try {
+                if (mEquippingModel == EquippingModel.CATEGORY) {
+                    VirtualCategory category = null;
                     try {
-                        equippableVG = (EquippableVG) StoreInfo.getVirtualItem(goodItemId);
+                        category = StoreInfo.getCategory(getItemId());
+                    } catch (VirtualItemNotFoundException e) {
+                        StoreUtils.LogError(TAG,
+                                "Tried to unequip all other category VirtualGoods but there was "
+                                + "no associated category. virtual good itemId: " + getItemId());
+                        // nothing was written, there's nothing to roll back
+                        batch.setSuccessful();
+                        return;
+                    }
 
-                        if (equippableVG != null && equippableVG != this) {
-                            equippableVG.unequip(notify);
+                    for(String goodItemId : category.getGoodsItemIds()) {
+                        EquippableVG equippableVG = null;
+                        try {
+                            equippableVG = (EquippableVG) StoreInfo.getVirtualItem(goodItemId);
+
+                            if (equippableVG != null && equippableVG != this) {
+                                equippableVG.unequip(notify);
+                            }
+                        } catch (VirtualItemNotFoundException e) {
+                            StoreUtils.LogError(TAG, "On equip, couldn't find one of the itemIds "
+                                    + "in the category. Continuing to the next one. itemId: "
+                                    + goodItemId);
+                        } catch (ClassCastException ex) {
+                            StoreUtils.LogDebug(TAG, "On equip, an error occurred. It's a debug "
+                                    + "message b/c the VirtualGood may just not be an "
+                                    + "EquippableVG. itemId: " + goodItemId);
                         }
-                    } catch (VirtualItemNotFoundException e) {
-                        StoreUtils.LogError(TAG, "On equip, couldn't find one of the itemIds "
-                                + "in the category. Continuing to the next one. itemId: "
-                                + goodItemId);
-                    } catch (ClassCastException ex) {
-                        StoreUtils.LogDebug(TAG, "On equip, an error occurred. It's a debug "
-                                + "message b/c the VirtualGood may just not be an EquippableVG. "
-                                + "itemId: " + goodItemId);
                     }
-                }
-            } else if (mEquippingModel == EquippingModel.GLOBAL) {
-                for(VirtualGood good : StoreInfo.getGoods()) {
-                    if (good != this &&
-                        good instanceof EquippableVG) {
-                        ((EquippableVG)good).unequip(notify);
+                } else if (mEquippingModel == EquippingModel.GLOBAL) {
+                    for(EquippableVG equippableVG : StoreInfo.getGoods(EquippableVG.class)) {
+                        if (equippableVG != this) {
+                            equippableVG.unequip(notify);
+                        }
                     }
                 }
-            }
 
-            StorageManager.getVirtualGoodsStorage().equip(this, notify);
+                StorageManager.getVirtualGoodsStorage().equip(this, notify);
+                batch.setSuccessful();
+            } finally {
+                batch.end();
+            }
         }
         else {
             throw new NotEnoughGoodsException(getItemId());
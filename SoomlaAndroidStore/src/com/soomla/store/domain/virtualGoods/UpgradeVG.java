@@ -19,6 +19,7 @@ package com.soomla.store.domain.virtualGoods;
 import android.text.TextUtils;
 import com.soomla.store.StoreUtils;
 import com.soomla.store.data.JSONConsts;
+import com.soomla.store.data.KeyValueStorage;
 import com.soomla.store.data.StorageManager;
 import com.soomla.store.data.StoreInfo;
 import com.soomla.store.exceptions.VirtualItemNotFoundException;
@@ -144,9 +145,16 @@ public class UpgradeVG extends LifetimeVG {
             return 0;
         }
 
-        StorageManager.getVirtualGoodsStorage().assignCurrentUpgrade(good, this, notify);
+        KeyValueStorage.Batch batch = StorageManager.getKeyValueStorage().batch();
+        try {
+            StorageManager.getVirtualGoodsStorage().assignCurrentUpgrade(good, this, notify);
 
-        return super.give(amount, notify);
+            int balance = super.give(amount, notify);
+            batch.setSuccessful();
+            return balance;
+        } finally {
+            batch.end();
+        }
     }
 
      /**
@@ -183,8 +191,8 @@ public class UpgradeVG extends LifetimeVG {
             return 0;
         }
 
+        UpgradeVG prevUpgradeVG = null;
         if (!TextUtils.isEmpty(mPrevItemId)) {
-            UpgradeVG prevUpgradeVG = null;
             // Case: downgrade is not possible because previous upgrade does not exist
             try {
                 prevUpgradeVG = (UpgradeVG)StoreInfo.getVirtualItem(mPrevItemId);
@@ -193,20 +201,30 @@ public class UpgradeVG extends LifetimeVG {
                         + " doesn't exist! Can't downgrade.");
                 return 0;
             }
-            // Case: downgrade is successful!
-            StoreUtils.LogDebug(TAG, "Downgrading " + good.getName() + " to: "
-                    + prevUpgradeVG.getName());
-            StorageManager.getVirtualGoodsStorage().assignCurrentUpgrade(good,
-                    prevUpgradeVG, notify);
         }
 
-        // Case: first Upgrade in the series - so we downgrade to NO upgrade.
-        else {
-            StoreUtils.LogDebug(TAG, "Downgrading " + good.getName() + " to NO-UPGRADE");
-            StorageManager.getVirtualGoodsStorage().removeUpgrades(good, notify);
-        }
+        KeyValueStorage.Batch batch = StorageManager.getKeyValueStorage().batch();
+        try {
+            if (prevUpgradeVG != null) {
+                // Case: downgrade is successful!
+                StoreUtils.LogDebug(TAG, "Downgrading " + good.getName() + " to: "
+                        + prevUpgradeVG.getName());
+                StorageManager.getVirtualGoodsStorage().assignCurrentUpgrade(good,
+                        prevUpgradeVG, notify);
+            }
+
+            // Case: first Upgrade in the series - so we downgrade to NO upgrade.
+            else {
+                StoreUtils.LogDebug(TAG, "Downgrading " + good.getName() + " to NO-UPGRADE");
+                StorageManager.getVirtualGoodsStorage().removeUpgrades(good, notify);
+            }
 
-        return super.take(amount, notify);
+            int balance = super.take(amount, notify);
+            batch.setSuccessful();
+            return balance;
+        } finally {
+            batch.end();
+        }
     }
 
     /**
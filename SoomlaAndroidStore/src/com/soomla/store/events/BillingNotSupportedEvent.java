@@ -19,5 +19,13 @@ package com.soomla.store.events;
 /**
  * This event is fired when SOOMLA knows that billing is NOT supported on the device.
  */
-public class BillingNotSupportedEvent {
+public class BillingNotSupportedEvent extends StoreEvent {
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onBillingNotSupported(this);
+    }
 }
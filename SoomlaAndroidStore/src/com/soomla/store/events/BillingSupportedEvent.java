@@ -19,5 +19,13 @@ package com.soomla.store.events;
 /**
  * This event is fired when SOOMLA knows that billing IS supported on the device.
  */
-public class BillingSupportedEvent {
+public class BillingSupportedEvent extends StoreEvent {
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onBillingSupported(this);
+    }
 }
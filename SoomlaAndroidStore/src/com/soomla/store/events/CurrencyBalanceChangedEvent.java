@@ -16,6 +16,7 @@
 
 package com.soomla.store.events;
 
+import com.soomla.store.StoreConfig;
 import com.soomla.store.domain.virtualCurrencies.VirtualCurrency;
 
 /**
@@ -27,7 +28,7 @@ import com.soomla.store.domain.virtualCurrencies.VirtualCurrency;
  *  His/her new balance of currency_coin will now be 90.
  *  A <code>CurrencyBalanceChangedEvent</code> is fired.
  */
-public class CurrencyBalanceChangedEvent {
+public class CurrencyBalanceChangedEvent extends RecyclableEvent {
 
     /**
      * Constructor
@@ -42,6 +43,47 @@ public class CurrencyBalanceChangedEvent {
         mAmountAdded = amountAdded;
     }
 
+    /**
+     * Retrieves an event with the given fields, recycled if event pooling is on.
+     * See {@link GoodBalanceChangedEvent#obtain}.
+     *
+     * @param currency the virtual currency whose balance has changed
+     * @param balance the new balance
+     * @param amountAdded the amount added to the balance
+     * @return the event
+     */
+    public static CurrencyBalanceChangedEvent obtain(VirtualCurrency currency, int balance,
+                                                     int amountAdded) {
+        boolean pooled = StoreConfig.poolEvents;
+        CurrencyBalanceChangedEvent event = pooled ? mPool.obtain() : null;
+        if (event == null) {
+            event = new CurrencyBalanceChangedEvent(currency, balance, amountAdded);
+        } else {
+            event.mCurrency = currency;
+            event.mBalance = balance;
+            event.mAmountAdded = amountAdded;
+        }
+        event.reset(pooled);
+        return event;
+    }
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    void recycle() {
+        mCurrency = null;
+        mPool.recycle(this);
+    }
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onCurrencyBalanceChanged(this);
+    }
+
 
     /** Setters and Getters */
 
@@ -60,6 +102,10 @@ public class CurrencyBalanceChangedEvent {
 
     /** Private Members */
 
+    // recycled events, see obtain()
+    private static final EventPool<CurrencyBalanceChangedEvent> mPool =
+            new EventPool<CurrencyBalanceChangedEvent>(POOL_SIZE);
+
     private VirtualCurrency mCurrency;
 
     private int mBalance;
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.events;
+
+import java.util.ArrayList;
+
+/**
+ * A bounded pool of recycled events of a single type.
+ */
+final class EventPool<T extends RecyclableEvent> {
+
+    /**
+     * Constructor
+     *
+     * @param capacity the maximum number of recycled events to keep
+     */
+    EventPool(int capacity) {
+        mCapacity = capacity;
+        mEvents = new ArrayList<T>(capacity);
+    }
+
+    /**
+     * Takes an event out of the pool.
+     *
+     * @return a recycled event, or null if the pool is empty
+     */
+    synchronized T obtain() {
+        int size = mEvents.size();
+        return size > 0 ? mEvents.remove(size - 1) : null;
+    }
+
+    /**
+     * Puts the given event back in the pool, unless the pool is full.
+     *
+     * @param event the recycled event
+     */
+    synchronized void recycle(T event) {
+        if (mEvents.size() < mCapacity) {
+            mEvents.add(event);
+        }
+    }
+
+
+    /** Private Members **/
+
+    private final int mCapacity;
+
+    private final ArrayList<T> mEvents;
+}
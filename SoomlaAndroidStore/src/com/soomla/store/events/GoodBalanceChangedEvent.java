@@ -16,6 +16,7 @@
 
 package com.soomla.store.events;
 
+import com.soomla.store.StoreConfig;
 import com.soomla.store.domain.virtualGoods.VirtualGood;
 
 /**
@@ -27,7 +28,7 @@ import com.soomla.store.domain.virtualGoods.VirtualGood;
  *  His/her new balance of "blue_hat" will now be 1.
  *  A <code>GoodBalanceChangedEvent</code> is fired.
  */
-public class GoodBalanceChangedEvent {
+public class GoodBalanceChangedEvent extends RecyclableEvent {
 
     /**
      * Constructor
@@ -42,6 +43,47 @@ public class GoodBalanceChangedEvent {
         mAmountAdded = amountAdded;
     }
 
+    /**
+     * Retrieves an event with the given fields: a recycled one if
+     * {@link com.soomla.store.StoreConfig#poolEvents} is on and there's one in the pool, and a new
+     * one otherwise. See {@link RecyclableEvent} for who owns the event.
+     *
+     * @param good the virtual good whose balance has changed
+     * @param balance the new balance
+     * @param amountAdded the amount added to the balance
+     * @return the event
+     */
+    public static GoodBalanceChangedEvent obtain(VirtualGood good, int balance, int amountAdded) {
+        boolean pooled = StoreConfig.poolEvents;
+        GoodBalanceChangedEvent event = pooled ? mPool.obtain() : null;
+        if (event == null) {
+            event = new GoodBalanceChangedEvent(good, balance, amountAdded);
+        } else {
+            event.mGood = good;
+            event.mBalance = balance;
+            event.mAmountAdded = amountAdded;
+        }
+        event.reset(pooled);
+        return event;
+    }
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    void recycle() {
+        mGood = null;
+        mPool.recycle(this);
+    }
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onGoodBalanceChanged(this);
+    }
+
 
     /** Setters and Getters */
 
@@ -60,6 +102,10 @@ public class GoodBalanceChangedEvent {
 
     /** Private Members */
 
+    // recycled events, see obtain()
+    private static final EventPool<GoodBalanceChangedEvent> mPool =
+            new EventPool<GoodBalanceChangedEvent>(POOL_SIZE);
+
     private VirtualGood mGood;
 
     private int mBalance;
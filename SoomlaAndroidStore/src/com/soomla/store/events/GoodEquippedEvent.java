@@ -16,6 +16,7 @@
 
 package com.soomla.store.events;
 
+import com.soomla.store.StoreConfig;
 import com.soomla.store.domain.virtualGoods.EquippableVG;
 
 /**
@@ -27,7 +28,7 @@ import com.soomla.store.domain.virtualGoods.EquippableVG;
  *  His/her new balance of Characters will be { Characters: Robot_Y }.
  *  A <code>GoodEquippedEvent</code> is fired.
  */
-public class GoodEquippedEvent {
+public class GoodEquippedEvent extends RecyclableEvent {
     /**
      * Constructor
      *
@@ -37,6 +38,42 @@ public class GoodEquippedEvent {
         mGood = good;
     }
 
+    /**
+     * Retrieves an event for the given good, recycled if event pooling is on.
+     * See {@link RecyclableEvent} for who owns it.
+     *
+     * @param good the virtual good that was equipped
+     * @return the event
+     */
+    public static GoodEquippedEvent obtain(EquippableVG good) {
+        boolean pooled = StoreConfig.poolEvents;
+        GoodEquippedEvent event = pooled ? mPool.obtain() : null;
+        if (event == null) {
+            event = new GoodEquippedEvent(good);
+        } else {
+            event.mGood = good;
+        }
+        event.reset(pooled);
+        return event;
+    }
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    void recycle() {
+        mGood = null;
+        mPool.recycle(this);
+    }
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onGoodEquipped(this);
+    }
+
 
     /** Setters and Getters */
 
@@ -47,5 +84,9 @@ public class GoodEquippedEvent {
 
     /** Private Members */
 
+    // recycled events, see obtain()
+    private static final EventPool<GoodEquippedEvent> mPool =
+            new EventPool<GoodEquippedEvent>(POOL_SIZE);
+
     private EquippableVG mGood;
 }
@@ -16,6 +16,7 @@
 
 package com.soomla.store.events;
 
+import com.soomla.store.StoreConfig;
 import com.soomla.store.domain.virtualGoods.EquippableVG;
 
 /**
@@ -27,7 +28,7 @@ import com.soomla.store.domain.virtualGoods.EquippableVG;
  *  His/her new balance of Characters will be { Characters: Robot_X, Robot_Y }.
  *  A <code>GoodUnEquippedEvent</code> is fired.
  */
-public class GoodUnEquippedEvent {
+public class GoodUnEquippedEvent extends RecyclableEvent {
 
     /**
      * Constructor
@@ -38,6 +39,42 @@ public class GoodUnEquippedEvent {
         mGood = good;
     }
 
+    /**
+     * Retrieves an event for the given good, recycled if event pooling is on.
+     * See {@link RecyclableEvent} for who owns it.
+     *
+     * @param good the virtual good that was unequipped
+     * @return the event
+     */
+    public static GoodUnEquippedEvent obtain(EquippableVG good) {
+        boolean pooled = StoreConfig.poolEvents;
+        GoodUnEquippedEvent event = pooled ? mPool.obtain() : null;
+        if (event == null) {
+            event = new GoodUnEquippedEvent(good);
+        } else {
+            event.mGood = good;
+        }
+        event.reset(pooled);
+        return event;
+    }
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    void recycle() {
+        mGood = null;
+        mPool.recycle(this);
+    }
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onGoodUnEquipped(this);
+    }
+
 
     /** Setters and Getters */
 
@@ -48,5 +85,9 @@ public class GoodUnEquippedEvent {
 
     /** Private Members */
 
+    // recycled events, see obtain()
+    private static final EventPool<GoodUnEquippedEvent> mPool =
+            new EventPool<GoodUnEquippedEvent>(POOL_SIZE);
+
     private EquippableVG mGood;
 }
@@ -28,7 +28,7 @@ import com.soomla.store.domain.virtualGoods.VirtualGood;
  *  After the upgrade, his/her new balance of Characters will be { Characters: Robot_X_2 }.
  *  A <code>GoodUpgradeEvent</code> is fired.
  */
-public class GoodUpgradeEvent {
+public class GoodUpgradeEvent extends StoreEvent {
 
     /**
      * Constructor
@@ -41,6 +41,14 @@ public class GoodUpgradeEvent {
         mCurrentUpgrade = upgradeVG;
     }
 
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onGoodUpgrade(this);
+    }
+
 
     /** Setters and Getters */
 
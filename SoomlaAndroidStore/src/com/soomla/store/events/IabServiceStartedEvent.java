@@ -19,8 +19,16 @@ package com.soomla.store.events;
 /**
  * This event is fired when a billing service is started.
  */
-public class IabServiceStartedEvent {
+public class IabServiceStartedEvent extends StoreEvent {
 
     public IabServiceStartedEvent() {
     }
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onIabServiceStarted(this);
+    }
 }
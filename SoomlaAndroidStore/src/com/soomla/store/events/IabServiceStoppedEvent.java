@@ -19,8 +19,16 @@ package com.soomla.store.events;
 /**
  * This event is fired when a billing service is stopped.
  */
-public class IabServiceStoppedEvent {
+public class IabServiceStoppedEvent extends StoreEvent {
 
     public IabServiceStoppedEvent() {
     }
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onIabServiceStopped(this);
+    }
 }
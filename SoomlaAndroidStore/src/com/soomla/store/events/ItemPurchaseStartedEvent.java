@@ -22,7 +22,7 @@ import com.soomla.store.domain.PurchasableVirtualItem;
  * This event is fired when a specific <code>PurchasableVirtualItem</code> purchase process has
  * started.
  */
-public class ItemPurchaseStartedEvent {
+public class ItemPurchaseStartedEvent extends StoreEvent {
 
     /**
      * Constructor
@@ -33,6 +33,14 @@ public class ItemPurchaseStartedEvent {
         mPurchasableVirtualItem = purchasableVirtualItem;
     }
 
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onItemPurchaseStarted(this);
+    }
+
 
     /** Setters and Getters */
 
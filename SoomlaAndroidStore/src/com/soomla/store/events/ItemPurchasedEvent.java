@@ -21,7 +21,7 @@ import com.soomla.store.domain.PurchasableVirtualItem;
 /**
  * This event is fired when a specific <code>PurchasableVirtualItem</code> has been purchased.
  */
-public class ItemPurchasedEvent {
+public class ItemPurchasedEvent extends StoreEvent {
 
     /**
      * Constructor
@@ -32,6 +32,14 @@ public class ItemPurchasedEvent {
         mPurchasableVirtualItem = purchasableVirtualItem;
     }
 
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onItemPurchased(this);
+    }
+
 
     /** Setters and Getters */
 
@@ -24,7 +24,7 @@ import java.util.List;
 /**
  * This event is fired when items associated with market are refreshed (prices, titles ...).
  */
-public class MarketItemsRefreshFinishedEvent {
+public class MarketItemsRefreshFinishedEvent extends StoreEvent {
 
     /**
      * Constructor.
@@ -35,6 +35,14 @@ public class MarketItemsRefreshFinishedEvent {
         this.mMarketItems = marketItems;
     }
 
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onMarketItemsRefreshFinished(this);
+    }
+
 
     /** Setters and Getters */
 
@@ -19,5 +19,13 @@ package com.soomla.store.events;
 /**
  * This event is fired when the market items refresh process has started.
  */
-public class MarketItemsRefreshStartedEvent {
+public class MarketItemsRefreshStartedEvent extends StoreEvent {
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onMarketItemsRefreshStarted(this);
+    }
 }
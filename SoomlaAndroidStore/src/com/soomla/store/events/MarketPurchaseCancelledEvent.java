@@ -21,7 +21,7 @@ import com.soomla.store.domain.PurchasableVirtualItem;
 /**
  * This event is fired when a Market purchase was cancelled by the user.
  */
-public class MarketPurchaseCancelledEvent {
+public class MarketPurchaseCancelledEvent extends StoreEvent {
 
     /**
      * Constructor
@@ -32,6 +32,14 @@ public class MarketPurchaseCancelledEvent {
         mPurchasableVirtualItem = purchasableVirtualItem;
     }
 
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onMarketPurchaseCancelled(this);
+    }
+
 
     /** Setters and Getters */
 
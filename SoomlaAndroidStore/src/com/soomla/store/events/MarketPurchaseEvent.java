@@ -21,7 +21,7 @@ import com.soomla.store.domain.PurchasableVirtualItem;
 /**
  * This event is fired when a Market purchase has occurred.
  */
-public class MarketPurchaseEvent {
+public class MarketPurchaseEvent extends StoreEvent {
 
     /**
      * Constructor
@@ -38,6 +38,14 @@ public class MarketPurchaseEvent {
         mOrderId = orderId;
     }
 
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onMarketPurchase(this);
+    }
+
 
     /** Setters and Getters */
 
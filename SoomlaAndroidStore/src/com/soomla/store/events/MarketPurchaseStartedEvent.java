@@ -21,7 +21,7 @@ import com.soomla.store.domain.PurchasableVirtualItem;
 /**
  * This event is fired when a Market purchase has started.
  */
-public class MarketPurchaseStartedEvent {
+public class MarketPurchaseStartedEvent extends StoreEvent {
 
     /**
      * Constructor
@@ -32,6 +32,14 @@ public class MarketPurchaseStartedEvent {
         mPurchasableVirtualItem = purchasableVirtualItem;
     }
 
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onMarketPurchaseStarted(this);
+    }
+
 
     /** Setters and Getters */
 
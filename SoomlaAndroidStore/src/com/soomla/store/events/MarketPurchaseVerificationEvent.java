@@ -20,7 +20,7 @@ import com.soomla.store.domain.PurchasableVirtualItem;
 /**
  * This event is fired when a Market purchase has finished.
  */
-public class MarketPurchaseVerificationEvent {
+public class MarketPurchaseVerificationEvent extends StoreEvent {
 
     /**
      * Constructor
@@ -34,6 +34,14 @@ public class MarketPurchaseVerificationEvent {
         mOrderId = orderId;
     }
 
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onMarketPurchaseVerification(this);
+    }
+
 
     /** Setters and Getters */
 
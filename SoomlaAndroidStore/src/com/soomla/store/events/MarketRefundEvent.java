@@ -21,7 +21,7 @@ import com.soomla.store.domain.PurchasableVirtualItem;
 /**
  * This event is fired when a Market refund has been issued.
  */
-public class MarketRefundEvent {
+public class MarketRefundEvent extends StoreEvent {
 
     /**
      * Constructor
@@ -34,6 +34,14 @@ public class MarketRefundEvent {
         mPayload = payload;
     }
 
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onMarketRefund(this);
+    }
+
 
     /** Setters and Getters */
 
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.soomla.store.events;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An event whose instances can be reused, to save the allocations of events that are posted very
+ * often. See {@link com.soomla.store.StoreConfig#poolEvents}.
+ *
+ * Ownership: whoever obtains an event owns it until it posts it. Posting hands the event over to
+ * the event bus, which keeps a reference for every thread it delivers the event on, and recycles
+ * it once it's delivered on all of them. Subscribers and handlers must not keep a pooled event
+ * after they return; copy whatever they need out of it instead.
+ */
+public abstract class RecyclableEvent extends StoreEvent {
+
+    /**
+     * Adds a reference to this event, so it's not recycled before the matching
+     * {@link #release()}. Used by the event bus.
+     */
+    public final void retain() {
+        mReferences.incrementAndGet();
+    }
+
+    /**
+     * Removes a reference to this event. The event is recycled when the last reference is removed,
+     * if it was obtained from a pool. Used by the event bus.
+     */
+    public final void release() {
+        if (mReferences.decrementAndGet() == 0 && mPooled) {
+            mPooled = false;
+            recycle();
+        }
+    }
+
+
+    /** Private functions **/
+
+    /**
+     * Marks this event as just obtained by its owner.
+     *
+     * @param pooled true if the event goes back to its pool when it's released
+     */
+    final void reset(boolean pooled) {
+        mReferences.set(1);
+        mPooled = pooled;
+    }
+
+    /**
+     * Drops the references this event holds, and returns it to its pool.
+     */
+    abstract void recycle();
+
+
+    /** Private Members **/
+
+    // the maximum number of recycled events of each type that are kept for reuse
+    static final int POOL_SIZE = 16;
+
+    // one for the owner of the event, and one for every thread the bus delivers it on
+    private final AtomicInteger mReferences = new AtomicInteger(1);
+
+    private volatile boolean mPooled = false;
+}
@@ -19,7 +19,7 @@ package com.soomla.store.events;
 /**
  * This event is fired when the restore transactions process has finished.
  */
-public class RestoreTransactionsFinishedEvent {
+public class RestoreTransactionsFinishedEvent extends StoreEvent {
 
     /**
      * Constructor
@@ -30,6 +30,15 @@ public class RestoreTransactionsFinishedEvent {
         mSuccess = success;
     }
 
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onRestoreTransactionsFinished(this);
+    }
+
+
     /** Setters and Getters */
 
     public boolean isSuccess() {
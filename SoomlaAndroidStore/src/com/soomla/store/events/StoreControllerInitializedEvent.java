@@ -19,5 +19,13 @@ package com.soomla.store.events;
 /**
  * This event is fired when SOOMLA <code>StoreController</code> is initialized.
  */
-public class StoreControllerInitializedEvent {
+public class StoreControllerInitializedEvent extends StoreEvent {
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onStoreControllerInitialized(this);
+    }
 }
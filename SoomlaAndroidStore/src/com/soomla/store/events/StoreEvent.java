@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.store.events;
+
+/**
+ * The base class of all of the store's events.
+ */
+public abstract class StoreEvent {
+
+    /**
+     * Passes this event to the method of the given handler that handles events of its type.
+     *
+     * @param handler the handler of the event
+     */
+    public abstract void dispatch(StoreEventHandler handler);
+}
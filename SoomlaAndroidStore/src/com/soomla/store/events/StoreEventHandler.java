@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.store.events;
+
+/**
+ * A handler of all of the store's events. Handlers are added to the event bus with
+ * {@link com.soomla.store.AndroidBus#addHandler(StoreEventHandler)}, and every event is passed to
+ * them by a direct call of the method of its type, without the reflection that
+ * <code>@Subscribe</code> methods need.
+ *
+ * Extend {@link StoreEventHandlerAdapter} to handle only some of the events.
+ */
+public interface StoreEventHandler {
+
+    void onBillingSupported(BillingSupportedEvent event);
+
+    void onBillingNotSupported(BillingNotSupportedEvent event);
+
+    void onIabServiceStarted(IabServiceStartedEvent event);
+
+    void onIabServiceStopped(IabServiceStoppedEvent event);
+
+    void onStoreControllerInitialized(StoreControllerInitializedEvent event);
+
+    void onStoreMetadataChanged(StoreMetadataChangedEvent event);
+
+    void onMarketItemsRefreshStarted(MarketItemsRefreshStartedEvent event);
+
+    void onMarketItemsRefreshFinished(MarketItemsRefreshFinishedEvent event);
+
+    void onMarketPurchaseStarted(MarketPurchaseStartedEvent event);
+
+    void onMarketPurchase(MarketPurchaseEvent event);
+
+    void onMarketPurchaseVerification(MarketPurchaseVerificationEvent event);
+
+    void onMarketPurchaseCancelled(MarketPurchaseCancelledEvent event);
+
+    void onMarketRefund(MarketRefundEvent event);
+
+    void onRestoreTransactionsStarted(RestoreTransactionsStartedEvent event);
+
+    void onRestoreTransactionsFinished(RestoreTransactionsFinishedEvent event);
+
+    void onItemPurchaseStarted(ItemPurchaseStartedEvent event);
+
+    void onItemPurchased(ItemPurchasedEvent event);
+
+    void onCurrencyBalanceChanged(CurrencyBalanceChangedEvent event);
+
+    void onGoodBalanceChanged(GoodBalanceChangedEvent event);
+
+    void onGoodEquipped(GoodEquippedEvent event);
+
+    void onGoodUnEquipped(GoodUnEquippedEvent event);
+
+    void onGoodUpgrade(GoodUpgradeEvent event);
+
+    void onUnexpectedStoreError(UnexpectedStoreErrorEvent event);
+}
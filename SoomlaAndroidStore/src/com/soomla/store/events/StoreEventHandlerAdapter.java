@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.store.events;
+
+/**
+ * A {@link StoreEventHandler} that ignores all of the events. Override the methods of the events
+ * you want to handle.
+ */
+public abstract class StoreEventHandlerAdapter implements StoreEventHandler {
+
+    @Override
+    public void onBillingSupported(BillingSupportedEvent event) {
+    }
+
+    @Override
+    public void onBillingNotSupported(BillingNotSupportedEvent event) {
+    }
+
+    @Override
+    public void onIabServiceStarted(IabServiceStartedEvent event) {
+    }
+
+    @Override
+    public void onIabServiceStopped(IabServiceStoppedEvent event) {
+    }
+
+    @Override
+    public void onStoreControllerInitialized(StoreControllerInitializedEvent event) {
+    }
+
+    @Override
+    public void onStoreMetadataChanged(StoreMetadataChangedEvent event) {
+    }
+
+    @Override
+    public void onMarketItemsRefreshStarted(MarketItemsRefreshStartedEvent event) {
+    }
+
+    @Override
+    public void onMarketItemsRefreshFinished(MarketItemsRefreshFinishedEvent event) {
+    }
+
+    @Override
+    public void onMarketPurchaseStarted(MarketPurchaseStartedEvent event) {
+    }
+
+    @Override
+    public void onMarketPurchase(MarketPurchaseEvent event) {
+    }
+
+    @Override
+    public void onMarketPurchaseVerification(MarketPurchaseVerificationEvent event) {
+    }
+
+    @Override
+    public void onMarketPurchaseCancelled(MarketPurchaseCancelledEvent event) {
+    }
+
+    @Override
+    public void onMarketRefund(MarketRefundEvent event) {
+    }
+
+    @Override
+    public void onRestoreTransactionsStarted(RestoreTransactionsStartedEvent event) {
+    }
+
+    @Override
+    public void onRestoreTransactionsFinished(RestoreTransactionsFinishedEvent event) {
+    }
+
+    @Override
+    public void onItemPurchaseStarted(ItemPurchaseStartedEvent event) {
+    }
+
+    @Override
+    public void onItemPurchased(ItemPurchasedEvent event) {
+    }
+
+    @Override
+    public void onCurrencyBalanceChanged(CurrencyBalanceChangedEvent event) {
+    }
+
+    @Override
+    public void onGoodBalanceChanged(GoodBalanceChangedEvent event) {
+    }
+
+    @Override
+    public void onGoodEquipped(GoodEquippedEvent event) {
+    }
+
+    @Override
+    public void onGoodUnEquipped(GoodUnEquippedEvent event) {
+    }
+
+    @Override
+    public void onGoodUpgrade(GoodUpgradeEvent event) {
+    }
+
+    @Override
+    public void onUnexpectedStoreError(UnexpectedStoreErrorEvent event) {
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2012-2014 Soomla Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.soomla.store.events;
+
+import java.util.List;
+
+/**
+ * This event is fired when the store's metadata is updated to a new version of
+ * <code>IStoreAssets</code> (see {@link com.soomla.store.IStoreAssets#getVersion()}).
+ * Items that didn't change are kept as they are, so only the items listed here need to be
+ * looked up again.
+ */
+public class StoreMetadataChangedEvent extends StoreEvent {
+
+    /**
+     * Constructor
+     *
+     * @param addedItemIds ids of the items that were added
+     * @param removedItemIds ids of the items that were removed
+     * @param changedItemIds ids of the items that were changed
+     * @param changedCategories names of the categories that were added, removed or changed
+     * @param changedUpgradesGoodItemIds ids of the goods whose upgrades were changed
+     */
+    public StoreMetadataChangedEvent(List<String> addedItemIds, List<String> removedItemIds,
+                                     List<String> changedItemIds, List<String> changedCategories,
+                                     List<String> changedUpgradesGoodItemIds) {
+        mAddedItemIds = addedItemIds;
+        mRemovedItemIds = removedItemIds;
+        mChangedItemIds = changedItemIds;
+        mChangedCategories = changedCategories;
+        mChangedUpgradesGoodItemIds = changedUpgradesGoodItemIds;
+    }
+
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onStoreMetadataChanged(this);
+    }
+
+
+    /** Setters and Getters */
+
+    public List<String> getAddedItemIds() {
+        return mAddedItemIds;
+    }
+
+    public List<String> getRemovedItemIds() {
+        return mRemovedItemIds;
+    }
+
+    public List<String> getChangedItemIds() {
+        return mChangedItemIds;
+    }
+
+    public List<String> getChangedCategories() {
+        return mChangedCategories;
+    }
+
+    public List<String> getChangedUpgradesGoodItemIds() {
+        return mChangedUpgradesGoodItemIds;
+    }
+
+
+    /** Private Members */
+
+    private List<String> mAddedItemIds;
+
+    private List<String> mRemovedItemIds;
+
+    private List<String> mChangedItemIds;
+
+    private List<String> mChangedCategories;
+
+    private List<String> mChangedUpgradesGoodItemIds;
+}
@@ -19,7 +19,7 @@ package com.soomla.store.events;
 /**
  * This event is fired when an unexpected/unrecognized error occurs in store.
  */
-public class UnexpectedStoreErrorEvent {
+public class UnexpectedStoreErrorEvent extends StoreEvent {
 
     /**
      * Constructor
@@ -39,6 +39,14 @@ public class UnexpectedStoreErrorEvent {
 		mMessage = "Unknown error";
 	}
 
+    /**
+     * @{inheritDoc}
+     */
+    @Override
+    public void dispatch(StoreEventHandler handler) {
+        handler.onUnexpectedStoreError(this);
+    }
+
 
     /** Setters and Getters */
 
@@ -18,6 +18,7 @@ package com.soomla.store.purchaseTypes;
 
 import com.soomla.store.BusProvider;
 import com.soomla.store.StoreUtils;
+import com.soomla.store.data.KeyValueStorage;
 import com.soomla.store.data.StorageManager;
 import com.soomla.store.data.StoreInfo;
 import com.soomla.store.data.VirtualItemStorage;
@@ -72,15 +73,29 @@ public class PurchaseWithVirtualItem extends PurchaseType {
         VirtualItemStorage storage = StorageManager.getVirtualItemStorage(item);
 
         assert storage != null;
-        int balance = storage.getBalance(item);
-        if (balance < mAmount){
+        KeyValueStorage keyValueStorage = StorageManager.getKeyValueStorage();
+
+        // the balance is checked inside the batch that pays, so two purchases can't both pay
+        // with the same balance
+        boolean paid = false;
+        KeyValueStorage.Batch batch = keyValueStorage.batch();
+        try {
+            if (storage.getBalance(item) >= mAmount) {
+                storage.remove(item, mAmount);
+
+                getAssociatedItem().give(1);
+                // delivered after the balance changes, and dropped if an outer batch rolls back
+                keyValueStorage.post(new ItemPurchasedEvent(getAssociatedItem()));
+                paid = true;
+            }
+            // nothing was written if the funds are insufficient, which mustn't fail an outer batch
+            batch.setSuccessful();
+        } finally {
+            batch.end();
+        }
+        if (!paid) {
             throw new InsufficientFundsException(mTargetItemId);
         }
-
-        storage.remove(item, mAmount);
-
-        getAssociatedItem().give(1);
-        BusProvider.getInstance().post(new ItemPurchasedEvent(getAssociatedItem()));
     }
 
 
@@ -49,8 +49,21 @@ public class AESObfuscator {
     // match the package name
     private static final String header = "com.soomla.billing.util.AESObfuscator-1|";
 
-    private Cipher mEncryptor;
-    private Cipher mDecryptor;
+    // every thread gets its own pair of ciphers, so (un)obfuscating never blocks other threads
+    private final ThreadLocal<Cipher> mEncryptor = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            return createCipher(Cipher.ENCRYPT_MODE);
+        }
+    };
+    private final ThreadLocal<Cipher> mDecryptor = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            return createCipher(Cipher.DECRYPT_MODE);
+        }
+    };
+
+    private final SecretKey mSecret;
 
     /**
      * Constructor
@@ -96,29 +109,24 @@ public class AESObfuscator {
             }
         }
 
-        SecretKey secret = new SecretKeySpec(passwordData, "AES");
-        try {
-            mEncryptor = Cipher.getInstance(CIPHER_ALGORITHM);
-            mEncryptor.init(Cipher.ENCRYPT_MODE, secret, new IvParameterSpec(IV));
-            mDecryptor = Cipher.getInstance(CIPHER_ALGORITHM);
-            mDecryptor.init(Cipher.DECRYPT_MODE, secret, new IvParameterSpec(IV));
-        } catch (GeneralSecurityException e) {
-            // This can't happen on a compatible Android device.
-            throw new RuntimeException("Invalid environment 2", e);
-        }
+        mSecret = new SecretKeySpec(passwordData, "AES");
+
+        // fail early (on the constructing thread) if the environment can't create the ciphers
+        mEncryptor.get();
+        mDecryptor.get();
     }
 
     public String obfuscateInt(int original) {
         return obfuscateString("" + original);
     }
 
-    public synchronized String obfuscateString(String original) {
+    public String obfuscateString(String original) {
         if (TextUtils.isEmpty(original)) {
             return original;
         }
         try {
             // Header is appended as an integrity check
-            return Base64.encode(mEncryptor.doFinal((header + original).getBytes(UTF8)));
+            return Base64.encode(mEncryptor.get().doFinal((header + original).getBytes(UTF8)));
         } catch (UnsupportedEncodingException e) {
             throw new RuntimeException("Invalid environment", e);
         } catch (GeneralSecurityException e) {
@@ -130,12 +138,12 @@ public class AESObfuscator {
         return Integer.parseInt(unobfuscateToString(obfuscated));
     }
 
-    public synchronized String unobfuscateToString(String obfuscated) throws ValidationException {
+    public String unobfuscateToString(String obfuscated) throws ValidationException {
         if (TextUtils.isEmpty(obfuscated)) {
             return null;
         }
         try {
-            String result = new String(mDecryptor.doFinal(Base64.decode(obfuscated)), UTF8);
+            String result = new String(mDecryptor.get().doFinal(Base64.decode(obfuscated)), UTF8);
             // Check for presence of header. This serves as a final integrity check, for cases
             // where the block size is correct during decryption.
             int headerIndex = result.indexOf(header);
@@ -155,6 +163,23 @@ public class AESObfuscator {
         }
     }
 
+    /**
+     * Creates a cipher in the given mode, initialized with this obfuscator's key.
+     *
+     * @param mode <code>Cipher.ENCRYPT_MODE</code> or <code>Cipher.DECRYPT_MODE</code>
+     * @return the initialized cipher
+     */
+    private Cipher createCipher(int mode) {
+        try {
+            Cipher cipher = Cipher.getInstance(CIPHER_ALGORITHM);
+            cipher.init(mode, mSecret, new IvParameterSpec(IV));
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            // This can't happen on a compatible Android device.
+            throw new RuntimeException("Invalid environment 2", e);
+        }
+    }
+
     /**
      * Indicates that an error occurred while validating the integrity of data managed by an
      * {@link AESObfuscator}.}
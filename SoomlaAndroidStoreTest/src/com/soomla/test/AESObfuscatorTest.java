@@ -0,0 +1,103 @@
+package com.soomla.test;
+
+import com.soomla.store.SoomlaApp;
+import com.soomla.store.util.AESObfuscator;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class AESObfuscatorTest {
+
+    @Before
+    public void setUp() throws Exception {
+        SoomlaApp.setExternalContext(Robolectric.getShadowApplication().getApplicationContext());
+        mObfuscator = new AESObfuscator(SALT, "com.soomla.test", "device");
+    }
+
+    @Test
+    public void shouldRoundTripValues() throws Exception {
+        String obfuscated = mObfuscator.obfuscateString("good.muffin.balance");
+        assertThat(obfuscated, not(equalTo("good.muffin.balance")));
+        assertThat(mObfuscator.unobfuscateToString(obfuscated), equalTo("good.muffin.balance"));
+
+        assertThat(mObfuscator.unobfuscateToInt(mObfuscator.obfuscateInt(9775)), equalTo(9775));
+    }
+
+    @Test
+    public void shouldObfuscateKeysTheSameWayEveryTime() throws Exception {
+        // KeyValueStorage looks keys up by their obfuscated form
+        AESObfuscator other = new AESObfuscator(SALT, "com.soomla.test", "device");
+        assertThat(other.obfuscateString("good.muffin.balance"),
+                equalTo(mObfuscator.obfuscateString("good.muffin.balance")));
+    }
+
+    @Test
+    public void shouldRejectValuesOfAnotherDevice() throws Exception {
+        AESObfuscator other = new AESObfuscator(SALT, "com.soomla.test", "another device");
+        try {
+            mObfuscator.unobfuscateToString(other.obfuscateString("good.muffin.balance"));
+            fail("a value obfuscated with another key was accepted");
+        } catch (AESObfuscator.ValidationException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void shouldBeSafeToShareBetweenThreads() throws Exception {
+        final String expected = mObfuscator.obfuscateString("currency.coin.balance");
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (int t = 0; t < THREADS; t++) {
+            final String prefix = "thread_" + t + ".balance.";
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = 0; i < ROUND_TRIPS; i++) {
+                        String original = prefix + i;
+                        String obfuscated = mObfuscator.obfuscateString(original);
+                        assertThat(mObfuscator.unobfuscateToString(obfuscated),
+                                equalTo(original));
+                        assertThat(mObfuscator.obfuscateString("currency.coin.balance"),
+                                equalTo(expected));
+                    }
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                // rethrows the failures of the threads
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+
+    /** Private Members **/
+
+    private static final byte[] SALT = { 1, 2, 3, 4, 5, 6, 7, 8 };
+
+    private static final int THREADS = 8;
+    private static final int ROUND_TRIPS = 500;
+
+    private AESObfuscator mObfuscator;
+}
@@ -0,0 +1,214 @@
+package com.soomla.test;
+
+import com.soomla.store.data.CatalogReader;
+import com.soomla.store.data.CatalogWriter;
+import com.soomla.store.domain.MarketItem;
+import com.soomla.store.domain.NonConsumableItem;
+import com.soomla.store.domain.VirtualCategory;
+import com.soomla.store.domain.VirtualItem;
+import com.soomla.store.domain.virtualCurrencies.VirtualCurrency;
+import com.soomla.store.domain.virtualCurrencies.VirtualCurrencyPack;
+import com.soomla.store.domain.virtualGoods.EquippableVG;
+import com.soomla.store.domain.virtualGoods.LifetimeVG;
+import com.soomla.store.domain.virtualGoods.SingleUsePackVG;
+import com.soomla.store.domain.virtualGoods.SingleUseVG;
+import com.soomla.store.domain.virtualGoods.UpgradeVG;
+import com.soomla.store.domain.virtualGoods.VirtualGood;
+import com.soomla.store.purchaseTypes.PurchaseWithMarket;
+import com.soomla.store.purchaseTypes.PurchaseWithVirtualItem;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+public class CatalogTest {
+
+    @Test
+    public void shouldReadBackTheSameCatalog() throws Exception {
+        CatalogReader reader = new CatalogReader(write());
+
+        assertSameItems(reader.getCurrencies(), CURRENCIES);
+        assertSameItems(reader.getCurrencyPacks(), PACKS);
+        assertSameItems(reader.getGoods(), GOODS);
+        assertSameItems(reader.getNonConsumables(), NON_CONSUMABLES);
+
+        assertThat(reader.getCategories().size(), equalTo(CATEGORIES.size()));
+        for (int i = 0; i < CATEGORIES.size(); i++) {
+            assertSameJSON(reader.getCategories().get(i).toJSONObject(),
+                    CATEGORIES.get(i).toJSONObject());
+        }
+    }
+
+    @Test
+    public void shouldReadSingleItems() throws Exception {
+        CatalogReader reader = new CatalogReader(write());
+
+        List<VirtualItem> items = new ArrayList<VirtualItem>();
+        items.addAll(CURRENCIES);
+        items.addAll(PACKS);
+        items.addAll(GOODS);
+        items.addAll(NON_CONSUMABLES);
+        assertThat(reader.getItemCount(), equalTo(items.size()));
+
+        // from the last one, so nothing depends on the items before it being decoded
+        for (int i = items.size() - 1; i >= 0; i--) {
+            assertThat(reader.getItemId(i), equalTo(items.get(i).getItemId()));
+            assertSameJSON(reader.readItem(i).toJSONObject(), items.get(i).toJSONObject());
+        }
+        assertThat(reader.getProductId(0), nullValue());
+        assertThat(reader.getProductId(1), equalTo("coins_100"));
+        assertThat(reader.getProductId(items.size() - 1), equalTo("no_ads"));
+    }
+
+    @Test
+    public void shouldReadBackASingleItemRecord() throws Exception {
+        for (VirtualGood good : GOODS) {
+            VirtualItem read = new CatalogReader(CatalogWriter.writeItem(good)).readItem(0);
+            assertThat(read.getClass().getName(), equalTo(good.getClass().getName()));
+            assertSameJSON(read.toJSONObject(), good.toJSONObject());
+        }
+    }
+
+    @Test
+    public void shouldKeepTheMarketDetails() throws Exception {
+        MarketItem marketItem = new MarketItem("oven", MarketItem.Managed.MANAGED, 1.99);
+        marketItem.setMarketPrice(2.49);
+        marketItem.setMarketTitle("Oven (Muffin Rush)");
+        marketItem.setMarketDescription("An oven");
+        marketItem.setMarketPriceWithCurrencySymbol("2,49 €");
+        marketItem.setMarketCurrencyCode("EUR");
+        LifetimeVG oven = new LifetimeVG("Oven", "An oven", "oven",
+                new PurchaseWithMarket(marketItem));
+
+        LifetimeVG read = (LifetimeVG) new CatalogReader(CatalogWriter.writeItem(oven))
+                .readItem(0);
+        MarketItem readMarketItem = ((PurchaseWithMarket) read.getPurchaseType()).getMarketItem();
+        assertThat(readMarketItem.getPrice(), equalTo(1.99));
+        assertThat(readMarketItem.getMarketPrice(), equalTo(2.49));
+        assertThat(readMarketItem.getMarketTitle(), equalTo("Oven (Muffin Rush)"));
+        assertThat(readMarketItem.getMarketDescription(), equalTo("An oven"));
+        assertThat(readMarketItem.getMarketPriceWithCurrencySymbol(), equalTo("2,49 €"));
+        assertThat(readMarketItem.getMarketCurrencyCode(), equalTo("EUR"));
+    }
+
+    @Test
+    public void shouldRejectMalformedCatalogs() throws Exception {
+        byte[] data = write();
+
+        byte[] truncated = Arrays.copyOf(data, data.length / 2);
+        try {
+            new CatalogReader(truncated).getGoods();
+            fail("a truncated catalog was read");
+        } catch (IOException e) {
+            // expected
+        }
+
+        byte[] json = CURRENCIES.get(0).toJSONObject().toString().getBytes("UTF-8");
+        try {
+            new CatalogReader(json);
+            fail("JSON was read as a catalog");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // the number of strings, right after the magic number and the version
+        for (int count : new int[] { -1, Integer.MAX_VALUE }) {
+            byte[] corrupted = data.clone();
+            ByteBuffer.wrap(corrupted).putInt(8, count);
+            try {
+                new CatalogReader(corrupted);
+                fail("a catalog with " + count + " strings was read");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+
+    /** Private functions **/
+
+    private static byte[] write() throws IOException {
+        return CatalogWriter.write(CURRENCIES, PACKS, GOODS, CATEGORIES, NON_CONSUMABLES);
+    }
+
+    private static void assertSameItems(List<? extends VirtualItem> actual,
+                                        List<? extends VirtualItem> expected) throws Exception {
+        assertThat(actual.size(), equalTo(expected.size()));
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(actual.get(i).getClass().getName(),
+                    equalTo(expected.get(i).getClass().getName()));
+            assertSameJSON(actual.get(i).toJSONObject(), expected.get(i).toJSONObject());
+        }
+    }
+
+    /**
+     * org.json's JSONObject has no equals, and the order of its keys isn't defined.
+     */
+    private static void assertSameJSON(Object actual, Object expected) throws Exception {
+        if (expected instanceof JSONObject) {
+            JSONObject actualObject = (JSONObject) actual;
+            JSONObject expectedObject = (JSONObject) expected;
+            assertThat(actualObject.length(), equalTo(expectedObject.length()));
+            Iterator<?> keys = expectedObject.keys();
+            while (keys.hasNext()) {
+                String key = (String) keys.next();
+                assertSameJSON(actualObject.get(key), expectedObject.get(key));
+            }
+        } else if (expected instanceof JSONArray) {
+            JSONArray actualArray = (JSONArray) actual;
+            JSONArray expectedArray = (JSONArray) expected;
+            assertThat(actualArray.length(), equalTo(expectedArray.length()));
+            for (int i = 0; i < expectedArray.length(); i++) {
+                assertSameJSON(actualArray.get(i), expectedArray.get(i));
+            }
+        } else {
+            assertThat(actual, equalTo(expected));
+        }
+    }
+
+
+    /** Private Members **/
+
+    private static final List<VirtualCurrency> CURRENCIES = Arrays.asList(
+            new VirtualCurrency("Coins", "Shiny coins", "currency_coin"));
+
+    private static final List<VirtualCurrencyPack> PACKS = Arrays.asList(
+            new VirtualCurrencyPack("100 Coins", "A pack of coins", "coins_100", 100,
+                    "currency_coin", new PurchaseWithMarket("coins_100", 0.99)));
+
+    private static final List<VirtualGood> GOODS = Arrays.<VirtualGood>asList(
+            new SingleUseVG("Muffin", "A muffin", "muffin",
+                    new PurchaseWithVirtualItem("currency_coin", 25)),
+            new LifetimeVG("Oven", "An oven", "oven",
+                    new PurchaseWithMarket("oven", 1.99)),
+            new EquippableVG(EquippableVG.EquippingModel.CATEGORY, "Hat", "A hat", "hat",
+                    new PurchaseWithVirtualItem("currency_coin", 100)),
+            new SingleUsePackVG("muffin", 10, "10 Muffins", "Muffins", "muffins_10",
+                    new PurchaseWithVirtualItem("currency_coin", 200)),
+            new UpgradeVG("oven", "", "oven_up2", "Oven 1", "A better oven", "oven_up1",
+                    new PurchaseWithVirtualItem("currency_coin", 50)),
+            new UpgradeVG("oven", "oven_up1", "", "Oven 2", "The best oven", "oven_up2",
+                    new PurchaseWithVirtualItem("currency_coin", 80)));
+
+    private static final List<VirtualCategory> CATEGORIES = Arrays.asList(
+            new VirtualCategory("Hats", new ArrayList<String>(Arrays.asList("hat"))));
+
+    private static final List<NonConsumableItem> NON_CONSUMABLES = Arrays.asList(
+            new NonConsumableItem("No Ads", "Removes the ads", "no_ads",
+                    new PurchaseWithMarket(new MarketItem("no_ads", MarketItem.Managed.MANAGED,
+                            1.99))));
+}
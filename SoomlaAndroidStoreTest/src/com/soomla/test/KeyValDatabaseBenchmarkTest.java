@@ -0,0 +1,111 @@
+package com.soomla.test;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import com.soomla.store.data.KeyValDatabase;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the latency of <code>setKeyVal</code> on a default-configured database (the old
+ * update-then-replace write on a rollback journal) with the tuned <code>KeyValDatabase</code>.
+ * Each side is timed a few times and the best round counts, so that a GC pause or a slow first
+ * round doesn't decide the result.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class KeyValDatabaseBenchmarkTest {
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = Robolectric.getShadowApplication().getApplicationContext();
+
+        mContext.deleteDatabase(BASELINE_DATABASE_NAME);
+        mBaseline = mContext.openOrCreateDatabase(BASELINE_DATABASE_NAME, Context.MODE_PRIVATE,
+                null);
+        mBaseline.execSQL("CREATE TABLE IF NOT EXISTS kv_store(key TEXT PRIMARY KEY, val TEXT)");
+
+        mContext.deleteDatabase("store.kv.db");
+        mTuned = new KeyValDatabase(mContext);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mBaseline.close();
+        mTuned.close();
+    }
+
+    @Test
+    public void tunedSetKeyValShouldNotBeSlowerThanTheBaseline() throws Exception {
+        long baselineNanos = Long.MAX_VALUE;
+        long tunedNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            baselineNanos = Math.min(baselineNanos, timeBaselineWrites());
+            tunedNanos = Math.min(tunedNanos, timeTunedWrites());
+        }
+
+        String lastKey = key(WRITES - 1);
+        assertThat(mTuned.getKeyVal(lastKey), equalTo("" + (WRITES - 1)));
+
+        System.out.println("setKeyVal x" + WRITES + " baseline: "
+                + (baselineNanos / WRITES / 1000) + "us/op, tuned: "
+                + (tunedNanos / WRITES / 1000) + "us/op");
+
+        // some slack, the timings of a single run are noisy
+        assertTrue("tuned: " + tunedNanos + "ns, baseline: " + baselineNanos + "ns",
+                tunedNanos <= baselineNanos + baselineNanos / 2);
+    }
+
+
+    /** Private functions **/
+
+    private long timeBaselineWrites() {
+        long start = System.nanoTime();
+        for (int i = 0; i < WRITES; i++) {
+            String key = key(i);
+            ContentValues values = new ContentValues();
+            values.put("val", "" + i);
+            int affected = mBaseline.update("kv_store", values, "key='" + key + "'", null);
+            if (affected == 0) {
+                values.put("key", key);
+                mBaseline.replace("kv_store", null, values);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private long timeTunedWrites() {
+        long start = System.nanoTime();
+        for (int i = 0; i < WRITES; i++) {
+            mTuned.setKeyVal(key(i), "" + i);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static String key(int i) {
+        return "good.item_" + (i % KEYS) + ".balance";
+    }
+
+
+    /** Private Members **/
+
+    private static final String BASELINE_DATABASE_NAME = "store.kv.baseline.db";
+
+    private static final int ROUNDS = 3;
+    private static final int WRITES = 1000;
+    private static final int KEYS = 50;
+
+    private Context mContext;
+
+    private SQLiteDatabase mBaseline;
+
+    private KeyValDatabase mTuned;
+}
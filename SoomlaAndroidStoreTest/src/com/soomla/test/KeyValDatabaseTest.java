@@ -0,0 +1,146 @@
+package com.soomla.test;
+
+import android.content.Context;
+import com.soomla.store.data.KeyValDatabase;
+import com.xtremelabs.robolectric.Robolectric;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+@RunWith(RobolectricTestRunner.class)
+public class KeyValDatabaseTest {
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = Robolectric.getShadowApplication().getApplicationContext();
+        context.deleteDatabase("store.kv.db");
+        mDatabase = new KeyValDatabase(context);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mDatabase.close();
+    }
+
+    @Test
+    public void shouldRoundTripValues() throws Exception {
+        assertThat(mDatabase.getKeyVal("good.muffin.balance"), nullValue());
+
+        mDatabase.setKeyVal("good.muffin.balance", "1");
+        assertThat(mDatabase.getKeyVal("good.muffin.balance"), equalTo("1"));
+
+        // an existing key is replaced, not duplicated
+        mDatabase.setKeyVal("good.muffin.balance", "2");
+        assertThat(mDatabase.getKeyVal("good.muffin.balance"), equalTo("2"));
+
+        mDatabase.deleteKeyVal("good.muffin.balance");
+        assertThat(mDatabase.getKeyVal("good.muffin.balance"), nullValue());
+    }
+
+    @Test
+    public void shouldQueryByPattern() throws Exception {
+        mDatabase.setKeyVal("good.muffin.balance", "1");
+        mDatabase.setKeyVal("good.cake.balance", "2");
+        mDatabase.setKeyVal("currency.coin.balance", "3");
+
+        HashMap<String, String> vals = mDatabase.getQueryVals("good.*");
+        assertThat(vals.size(), equalTo(2));
+        assertThat(vals.get("good.muffin.balance"), equalTo("1"));
+        assertThat(vals.get("good.cake.balance"), equalTo("2"));
+    }
+
+    @Test
+    public void shouldFetchOnlyTheGivenKeys() throws Exception {
+        List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 1200; i++) {
+            mDatabase.setKeyVal("good.item_" + i + ".balance", "" + i);
+            if (i % 2 == 0) {
+                keys.add("good.item_" + i + ".balance");
+            }
+        }
+        keys.add("good.missing.balance");
+
+        HashMap<String, String> vals = mDatabase.getKeyVals(keys);
+        assertThat(vals.size(), equalTo(600));
+        assertThat(vals.get("good.item_0.balance"), equalTo("0"));
+        assertThat(vals.get("good.item_1198.balance"), equalTo("1198"));
+        assertThat(vals.containsKey("good.item_1.balance"), equalTo(false));
+    }
+
+    @Test
+    public void shouldCommitSuccessfulTransactions() throws Exception {
+        mDatabase.beginTransaction();
+        try {
+            mDatabase.setKeyVal("currency.coin.balance", "75");
+            mDatabase.setKeyVal("good.muffin.balance", "1");
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+
+        assertThat(mDatabase.getKeyVal("currency.coin.balance"), equalTo("75"));
+        assertThat(mDatabase.getKeyVal("good.muffin.balance"), equalTo("1"));
+    }
+
+    @Test
+    public void shouldRollBackFailedTransactions() throws Exception {
+        mDatabase.setKeyVal("currency.coin.balance", "100");
+
+        mDatabase.beginTransaction();
+        try {
+            mDatabase.setKeyVal("currency.coin.balance", "75");
+            mDatabase.setKeyVal("good.muffin.balance", "1");
+        } finally {
+            mDatabase.endTransaction();
+        }
+
+        assertThat(mDatabase.getKeyVal("currency.coin.balance"), equalTo("100"));
+        assertThat(mDatabase.getKeyVal("good.muffin.balance"), nullValue());
+    }
+
+    @Test
+    public void shouldRollBackWhenANestedTransactionFails() throws Exception {
+        mDatabase.beginTransaction();
+        try {
+            mDatabase.setKeyVal("currency.coin.balance", "75");
+
+            mDatabase.beginTransaction();
+            try {
+                mDatabase.setKeyVal("good.muffin.balance", "1");
+            } finally {
+                mDatabase.endTransaction();
+            }
+
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+
+        assertThat(mDatabase.getKeyVal("currency.coin.balance"), nullValue());
+        assertThat(mDatabase.getKeyVal("good.muffin.balance"), nullValue());
+    }
+
+    @Test
+    public void shouldKeepValuesAcrossReopening() throws Exception {
+        mDatabase.setKeyVal("good.muffin.balance", "3");
+        mDatabase.close();
+
+        mDatabase = new KeyValDatabase(Robolectric.getShadowApplication().getApplicationContext());
+        assertThat(mDatabase.getKeyVal("good.muffin.balance"), equalTo("3"));
+    }
+
+
+    /** Private Members **/
+
+    private KeyValDatabase mDatabase;
+}
@@ -0,0 +1,144 @@
+package com.soomla.test;
+
+import com.soomla.store.AndroidBus;
+import com.soomla.store.StoreConfig;
+import com.soomla.store.domain.virtualGoods.SingleUseVG;
+import com.soomla.store.domain.virtualGoods.VirtualGood;
+import com.soomla.store.events.GoodBalanceChangedEvent;
+import com.soomla.store.events.StoreEventHandlerAdapter;
+import com.soomla.store.purchaseTypes.PurchaseWithVirtualItem;
+import com.xtremelabs.robolectric.RobolectricTestRunner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * The reference counting of pooled events: an event goes back to its pool only after every lane
+ * that it's delivered on is done with it. A recycled event is recognized by its cleared good.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class RecyclableEventTest {
+
+    @Before
+    public void setUp() {
+        StoreConfig.poolEvents = true;
+        mBus = new AndroidBus();
+        mMainThread = new RecordingHandler();
+        mPostingThread = new RecordingHandler();
+        mBus.addHandler(mMainThread, AndroidBus.Delivery.MAIN_THREAD);
+        mBus.addHandler(mPostingThread, AndroidBus.Delivery.POSTING_THREAD);
+    }
+
+    @After
+    public void tearDown() {
+        StoreConfig.poolEvents = false;
+    }
+
+    @Test
+    public void shouldRecycleAfterTheLastDelivery() {
+        GoodBalanceChangedEvent event = GoodBalanceChangedEvent.obtain(MUFFIN, 1, 1);
+        mBus.post(event);
+
+        assertThat(mMainThread.mEvents.size(), equalTo(1));
+        assertThat(mMainThread.mEvents.get(0), sameInstance(event));
+        assertThat(event.getGood(), nullValue());
+        assertThat(GoodBalanceChangedEvent.obtain(MUFFIN, 2, 1), sameInstance(event));
+    }
+
+    @Test
+    public void shouldKeepTheEventForEveryLane() {
+        GoodBalanceChangedEvent event = GoodBalanceChangedEvent.obtain(MUFFIN, 1, 1);
+        mBus.post(event);
+
+        // the posting thread is delivered to first, and mustn't recycle it under the main thread
+        assertThat(mPostingThread.mEvents.get(0), sameInstance(event));
+        assertThat(mPostingThread.mGoods.get(0), sameInstance((VirtualGood) MUFFIN));
+        assertThat(mMainThread.mEvents.get(0), sameInstance(event));
+        assertThat(mMainThread.mGoods.get(0), sameInstance((VirtualGood) MUFFIN));
+        assertThat(event.getGood(), nullValue());
+    }
+
+    @Test
+    public void shouldKeepARetainedEventUntilItsReleased() {
+        mMainThread.mRetain = true;
+        GoodBalanceChangedEvent event = GoodBalanceChangedEvent.obtain(MUFFIN, 1, 1);
+        mBus.post(event);
+
+        assertThat(event.getGood(), sameInstance((VirtualGood) MUFFIN));
+        assertThat(GoodBalanceChangedEvent.obtain(MUFFIN, 2, 1) == event, equalTo(false));
+
+        event.release();
+        assertThat(event.getGood(), nullValue());
+        assertThat(GoodBalanceChangedEvent.obtain(MUFFIN, 2, 1), sameInstance(event));
+    }
+
+    @Test
+    public void shouldRecycleCoalescedEvents() {
+        mBus.setBalanceEventsCoalescing(1000);
+
+        GoodBalanceChangedEvent first = GoodBalanceChangedEvent.obtain(MUFFIN, 1, 1);
+        mBus.post(first);
+        // pending, the bus holds it
+        assertThat(mMainThread.mEvents.size(), equalTo(0));
+        assertThat(first.getGood(), sameInstance((VirtualGood) MUFFIN));
+
+        GoodBalanceChangedEvent second = GoodBalanceChangedEvent.obtain(MUFFIN, 3, 2);
+        mBus.post(second);
+        // both were merged into a new event
+        assertThat(mMainThread.mEvents.size(), equalTo(0));
+        assertThat(first.getGood(), nullValue());
+        assertThat(second.getGood(), nullValue());
+
+        mBus.setBalanceEventsCoalescing(0);
+        assertThat(mMainThread.mEvents.size(), equalTo(1));
+        assertThat(mPostingThread.mEvents.size(), equalTo(1));
+        GoodBalanceChangedEvent merged = mMainThread.mEvents.get(0);
+        assertThat(mMainThread.mGoods.get(0), sameInstance((VirtualGood) MUFFIN));
+        assertThat(merged.getBalance(), equalTo(3));
+        assertThat(merged.getAmountAdded(), equalTo(3));
+        assertThat(merged.getGood(), nullValue());
+    }
+
+
+    /** Private Members **/
+
+    private static final SingleUseVG MUFFIN = new SingleUseVG("Muffin", "A muffin", "muffin",
+            new PurchaseWithVirtualItem("currency_coin", 25));
+
+    private AndroidBus mBus;
+
+    private RecordingHandler mMainThread;
+
+    private RecordingHandler mPostingThread;
+
+    /**
+     * Records the balance changes it gets, and the goods they had when they were delivered.
+     */
+    private static class RecordingHandler extends StoreEventHandlerAdapter {
+
+        @Override
+        public void onGoodBalanceChanged(GoodBalanceChangedEvent event) {
+            mEvents.add(event);
+            mGoods.add(event.getGood());
+            if (mRetain) {
+                event.retain();
+            }
+        }
+
+        private final List<GoodBalanceChangedEvent> mEvents =
+                new ArrayList<GoodBalanceChangedEvent>();
+
+        private final List<VirtualGood> mGoods = new ArrayList<VirtualGood>();
+
+        private boolean mRetain = false;
+    }
+}